@@ -0,0 +1,236 @@
+package org.onebrc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebrc.again26.BRC113_EqualsCityMismatchSimple;
+import org.onebrc.again26.BRC125_Refined_121;
+import org.onebrc.parallel.BRC083_ChunkSplitter;
+import org.onebrc.util.ChunkSplitter;
+
+/**
+ * We kept picking between the single threaded again26 classes and the parallel ones by hand.
+ * For small files, the single threaded ones win, because starting threads and merging results
+ * dominates, for large files the parallel ones win. This front-end looks at the file size,
+ * reads a few small pieces from several places of the file to estimate how many stations
+ * there are and how long their names get, and hands the file to the best registered engine.
+ *
+ * The decision is printed to System.err, so we can see later what ran.
+ *
+ * @author Rene Schwietzke
+ */
+public class AdaptiveBenchmark extends Benchmark
+{
+    // below that, threads don't pay off, 10M rows are about 140 MB
+    static final long PARALLEL_THRESHOLD = 256 * 1024 * 1024;
+
+    // engines that compare only the hash are fine up to the 10k stations of the rules
+    static final long HASH_ONLY_LIMIT = 10_000;
+
+    // how much we look at and from how many places
+    private static final int SAMPLE_PLACES = 8;
+    private static final int SAMPLE_BYTES = 64 * 1024;
+
+    /**
+     * What we know about an engine to make the call
+     *
+     * @param engine the engine class
+     * @param parallel does it use the thread count
+     * @param hashOnly does it compare stations by hash only, hence might mix up stations when there are many
+     * @param maxNameLength the longest station name in bytes it can deal with
+     */
+    public static record Engine(Class<? extends Benchmark> engine, boolean parallel, boolean hashOnly, int maxNameLength)
+    {
+    }
+
+    /**
+     * The registered engines, the first one that fits wins, so the fastest go first. The name
+     * lengths are the ones we tested, BRC125 misreads names from about 300 bytes on, because
+     * it refills its buffer late, BRC113 from about 200 bytes on. BRC083 needs a line to fit
+     * into the 80 KB buffer of its reader, it is the one for everything long.
+     */
+    static final List<Engine> ENGINES = List.of(
+            new Engine(BRC125_Refined_121.class, false, true, 256),
+            new Engine(BRC113_EqualsCityMismatchSimple.class, false, false, 128),
+            new Engine(BRC083_ChunkSplitter.class, true, false, 65_536));
+
+    /**
+     * What the sample told us
+     *
+     * @param fileSize the size of the file
+     * @param sampledLines the lines we looked at
+     * @param distinctStations the different stations in the sample
+     * @param estimatedStations the estimate for the full file
+     * @param maxNameLength the longest name we have seen in bytes
+     */
+    public static record Profile(long fileSize, int sampledLines, int distinctStations,
+            long estimatedStations, int maxNameLength)
+    {
+    }
+
+    // only tell once and not for every run
+    private static volatile String lastDecision;
+
+    @Override
+    public String run(final String fileName) throws IOException
+    {
+        final Profile profile = profile(fileName);
+        final Engine engine = select(profile, getThreadCount(), ENGINES);
+
+        final String decision = String.format("Adaptive: %s -> %s", profile, engine.engine().getName());
+        if (!decision.equals(lastDecision))
+        {
+            lastDecision = decision;
+            System.err.println(decision);
+        }
+
+        try
+        {
+            final Benchmark benchmark = engine.engine().getDeclaredConstructor().newInstance();
+            benchmark.setThreadCount(getThreadCount());
+            benchmark.setChunkSize(getChunkSize());
+
+            return benchmark.run(fileName);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Pick the first engine that can deal with the data. Parallel engines only when the file is
+     * large enough and we have been given more than one thread, single threaded ones otherwise. When
+     * nothing fits the size rule, we take anything that is safe for the data.
+     */
+    static Engine select(final Profile profile, final int threadCount, final List<Engine> engines)
+    {
+        final boolean parallel = threadCount > 1 && profile.fileSize() >= PARALLEL_THRESHOLD;
+
+        Engine fallback = null;
+        for (var engine : engines)
+        {
+            if (engine.hashOnly() && profile.estimatedStations() > HASH_ONLY_LIMIT)
+            {
+                continue;
+            }
+            if (engine.maxNameLength() < profile.maxNameLength())
+            {
+                continue;
+            }
+
+            if (engine.parallel() == parallel)
+            {
+                return engine;
+            }
+            else if (fallback == null)
+            {
+                fallback = engine;
+            }
+        }
+
+        if (fallback == null)
+        {
+            throw new IllegalStateException("No engine can handle " + profile);
+        }
+
+        return fallback;
+    }
+
+    /**
+     * Reads a few line aligned pieces of the file and counts the stations in there
+     */
+    static Profile profile(final String fileName) throws IOException
+    {
+        final Map<String, Integer> stations = new HashMap<>();
+        int lines = 0;
+        int maxNameLength = 0;
+        long fileSize;
+
+        try (var channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ))
+        {
+            fileSize = channel.size();
+
+            final ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_BYTES);
+            for (var chunk : ChunkSplitter.split(channel, SAMPLE_PLACES))
+            {
+                buffer.clear();
+                buffer.limit((int) Math.min(SAMPLE_BYTES, chunk.length()));
+                while (buffer.hasRemaining() && channel.read(buffer, chunk.start() + buffer.position()) > 0)
+                {
+                }
+
+                // only full lines, the chunk starts with one
+                final byte[] data = buffer.array();
+                final int end = buffer.position();
+                int start = 0;
+                int semicolon = -1;
+                for (int i = 0; i < end; i++)
+                {
+                    final byte b = data[i];
+                    if (b == ';')
+                    {
+                        semicolon = i;
+                    }
+                    else if (b == '\n')
+                    {
+                        if (semicolon > start)
+                        {
+                            final int length = semicolon - start;
+                            stations.merge(new String(data, start, length, StandardCharsets.UTF_8), 1, Integer::sum);
+                            maxNameLength = Math.max(maxNameLength, length);
+                            lines++;
+                        }
+                        start = i + 1;
+                        semicolon = -1;
+                    }
+                }
+            }
+        }
+
+        return new Profile(fileSize, lines, stations.size(),
+                estimate(stations.values(), lines, fileSize), maxNameLength);
+    }
+
+    /**
+     * Chao1 estimate: the stations we have seen once or twice tell us how many we have
+     * not seen at all. Never more than we could have lines in the file.
+     */
+    static long estimate(final Iterable<Integer> counts, final int lines, final long fileSize)
+    {
+        long distinct = 0;
+        long once = 0;
+        long twice = 0;
+        for (int count : counts)
+        {
+            distinct++;
+            if (count == 1)
+            {
+                once++;
+            }
+            else if (count == 2)
+            {
+                twice++;
+            }
+        }
+
+        final double unseen = twice > 0 ? (double) once * once / (2 * twice) : (double) once * (once - 1) / 2;
+        final long estimate = distinct + Math.round(unseen);
+
+        // the lines in the file are the hard upper limit
+        final long maxLines = lines == 0 ? estimate : Math.max(distinct, fileSize / 6);
+        return Math.min(estimate, maxLines);
+    }
+
+    public static void main(String[] args) throws NoSuchMethodException, SecurityException
+    {
+        Benchmark.run(AdaptiveBenchmark.class, args);
+    }
+}
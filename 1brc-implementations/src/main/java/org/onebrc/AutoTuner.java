@@ -0,0 +1,261 @@
+package org.onebrc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+import org.onebrc.util.ChunkSplitter;
+
+/**
+ * Finds a good thread count and chunk size for a parallel engine on this machine, instead of
+ * picking -t by hand. We cut a sample of line aligned pieces from several places of the file,
+ * run the engine on it with a couple of thread counts and chunk sizes, and take the fastest pair.
+ *
+ * The result is cached per machine fingerprint and file size class (the power of two of the
+ * file size) in ~/.1brc/autotune.properties, so only the first run on a machine pays for
+ * the calibration. Delete the file to tune again.
+ *
+ * The sample is written to a temp file and read a few times, so it is always in the page cache.
+ * The tuning hence reflects a warm cache.
+ *
+ * The chunk size is only tuned for engines that honor it, and only with sizes that give
+ * every thread several chunks of the sample. A larger chunk size would just be one chunk
+ * per thread on the sample and tell us nothing about the full file.
+ *
+ * @author Rene Schwietzke
+ */
+public class AutoTuner
+{
+    // how much we sample in total and from how many places
+    private static final long SAMPLE_SIZE = 64 * 1024 * 1024;
+    private static final int SAMPLE_PLACES = 8;
+
+    // 0 means, the engine decides, typically one chunk per thread
+    private static final long[] CHUNK_SIZES = {0, 1024 * 1024, 4 * 1024 * 1024, 16 * 1024 * 1024};
+    // a chunk size has to give each thread at least that many chunks of the sample
+    private static final int MIN_CHUNKS_PER_THREAD = 4;
+
+    private static final int RUNS = 3;
+
+    private static final Path CACHE = Path.of(System.getProperty("user.home"), ".1brc", "autotune.properties");
+
+    /**
+     * What we found
+     */
+    public static record Configuration(int threadCount, long chunkSize)
+    {
+    }
+
+    /**
+     * Returns the cached configuration or tunes and caches it
+     *
+     * @param factory creates a fresh engine for each calibration run
+     * @param fileName the file we are going to process
+     * @param engineName the engine, each engine gets its own tuning
+     * @return the best configuration
+     * @throws IOException
+     */
+    public static Configuration tune(final Supplier<Benchmark> factory, final String fileName, final String engineName) throws IOException
+    {
+        final long size = Files.size(Path.of(fileName));
+        final String key = engineName + "." + fingerprint() + ".2^" + (63 - Long.numberOfLeadingZeros(Math.max(1, size)));
+
+        final Properties cache = new Properties();
+        if (Files.exists(CACHE))
+        {
+            try (Reader r = Files.newBufferedReader(CACHE, StandardCharsets.UTF_8))
+            {
+                cache.load(r);
+            }
+        }
+
+        final String cached = cache.getProperty(key);
+        if (cached != null)
+        {
+            final String[] parts = cached.split(",");
+            final var config = new Configuration(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+            System.err.format("Autotune: cached %s for %s%n", config, key);
+
+            return config;
+        }
+
+        final Path sample = sample(fileName, size, SAMPLE_SIZE);
+        try
+        {
+            final var config = calibrate(factory, sample.toString());
+            System.err.format("Autotune: picked %s for %s%n", config, key);
+
+            cache.setProperty(key, config.threadCount() + "," + config.chunkSize());
+            Files.createDirectories(CACHE.getParent());
+            try (Writer w = Files.newBufferedWriter(CACHE, StandardCharsets.UTF_8))
+            {
+                cache.store(w, "1BRC autotune results, engine.fingerprint.sizeclass = threads,chunksize");
+            }
+
+            return config;
+        }
+        finally
+        {
+            if (!sample.toString().equals(fileName))
+            {
+                Files.deleteIfExists(sample);
+            }
+        }
+    }
+
+    /**
+     * Runs all combinations and returns the fastest
+     */
+    private static Configuration calibrate(final Supplier<Benchmark> factory, final String sample) throws IOException
+    {
+        Configuration best = null;
+        long bestRuntime = Long.MAX_VALUE;
+
+        final boolean honorsChunkSize = factory.get().honorsChunkSize();
+        final long sampleSize = Files.size(Path.of(sample));
+
+        for (int threads : threadCounts())
+        {
+            for (long chunkSize : chunkSizes(honorsChunkSize, sampleSize, threads))
+            {
+                // the best of some runs, the first one is warmup in disguise
+                long runtime = Long.MAX_VALUE;
+                for (int i = 0; i < RUNS; i++)
+                {
+                    final Benchmark benchmark = factory.get();
+                    benchmark.setThreadCount(threads);
+                    benchmark.setChunkSize(chunkSize);
+
+                    final long start = System.nanoTime();
+                    benchmark.run(sample);
+                    runtime = Math.min(runtime, System.nanoTime() - start);
+                }
+
+                if (runtime < bestRuntime)
+                {
+                    bestRuntime = runtime;
+                    best = new Configuration(threads, chunkSize);
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Powers of two up to the core count and the core count itself
+     */
+    static List<Integer> threadCounts()
+    {
+        final int cores = Runtime.getRuntime().availableProcessors();
+
+        final List<Integer> counts = new ArrayList<>();
+        for (int i = 1; i < cores; i <<= 1)
+        {
+            counts.add(i);
+        }
+        counts.add(cores);
+
+        return counts;
+    }
+
+    /**
+     * The chunk sizes worth a try, only 0 when the engine ignores the chunk size, otherwise
+     * the ones that give every thread enough chunks of the sample
+     */
+    static List<Long> chunkSizes(final boolean honorsChunkSize, final long sampleSize, final int threads)
+    {
+        final List<Long> sizes = new ArrayList<>();
+        for (long size : CHUNK_SIZES)
+        {
+            if (size == 0 || (honorsChunkSize && sampleSize / size >= (long) MIN_CHUNKS_PER_THREAD * threads))
+            {
+                sizes.add(size);
+            }
+        }
+
+        return sizes;
+    }
+
+    /**
+     * Copy line aligned pieces from several places of the file into one temp file.
+     * Small files are their own sample.
+     */
+    static Path sample(final String fileName, final long size, final long sampleSize) throws IOException
+    {
+        if (size <= sampleSize)
+        {
+            return Path.of(fileName);
+        }
+
+        final Path sample = Files.createTempFile("1brc-autotune", ".txt");
+        try (var in = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+                var out = FileChannel.open(sample, StandardOpenOption.WRITE))
+        {
+            final long pieceSize = sampleSize / SAMPLE_PLACES;
+            for (var chunk : ChunkSplitter.split(in, SAMPLE_PLACES))
+            {
+                final long end = Math.min(chunk.end(), ChunkSplitter.nextLineStart(in, chunk.start() + pieceSize));
+
+                long pos = chunk.start();
+                while (pos < end)
+                {
+                    pos += in.transferTo(pos, end - pos, out);
+                }
+            }
+        }
+
+        return sample;
+    }
+
+    /**
+     * Enough to tell our machines apart, not meant to be unique in the world
+     */
+    static String fingerprint()
+    {
+        String cpu = "unknown";
+        try
+        {
+            final Path cpuinfo = Path.of("/proc/cpuinfo");
+            if (Files.exists(cpuinfo))
+            {
+                cpu = Files.readAllLines(cpuinfo).stream()
+                        .filter(l -> l.startsWith("model name"))
+                        .map(l -> l.split(":", 2)[1].trim())
+                        .findFirst().orElse(cpu);
+            }
+        }
+        catch (IOException e)
+        {
+            // we are fine with unknown
+        }
+
+        final String machine = String.join("|",
+                cpu,
+                String.valueOf(Runtime.getRuntime().availableProcessors()),
+                System.getProperty("os.name"),
+                System.getProperty("os.arch"));
+
+        try
+        {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(machine.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 8);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
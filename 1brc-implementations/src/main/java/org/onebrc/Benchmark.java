@@ -1,8 +1,10 @@
 package org.onebrc;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -15,6 +17,8 @@ import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import org.onebrc.util.ResultWriter;
+
 /**
  * This is an interface to be implemented for our benchmark classes to enable it to run either standalone or later in a
  * JMH like setup to warm the VM and run
@@ -28,6 +32,11 @@ public abstract class Benchmark
      */
     private int threadCount;
     
+    /**
+     * The chunk size for our concurrent tests, 0 means the implementation decides
+     */
+    private long chunkSize;
+    
     /**
      * The interface to implement to make all implementation easily pluggable
      *
@@ -60,6 +69,36 @@ public abstract class Benchmark
         return threadCount;
     }
     
+    /**
+     * Set the chunk size for later retrieval
+     * 
+     * @param size the chunk size in bytes, 0 lets the implementation decide
+     */
+    public void setChunkSize(final long size)
+    {
+        this.chunkSize = size;
+    }
+    
+    /**
+     * Fetch the chunk size, does not mean it is used 
+     * @return the size defined, 0 when the implementation should decide
+     */
+    public long getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Does the implementation split by the chunk size, when one is given? Most of them
+     * ignore it, the autotuner should not tune what is ignored.
+     *
+     * @return true when -cs makes a difference
+     */
+    public boolean honorsChunkSize()
+    {
+        return false;
+    }
+    
     public static void run(final Class<? extends Benchmark> clazz, final String[] args)
     {
         try
@@ -94,7 +133,7 @@ public abstract class Benchmark
     private static void printError()
     {
         System.err.println("Where are the arguments?");
-        System.err.println("Usage: run -f <file> -wc [warmUpCount] -mc [measurementCount] [-t <count>] [--batchmode <comment>] [-o <filename>]");
+        System.err.println("Usage: run -f <file> -wc [warmUpCount] -mc [measurementCount] [-t <count>|auto] [-cs <bytes>] [--batchmode <comment>] [-o <filename>] [--format text|json|csv|bin]");
     }
 
     /**
@@ -170,10 +209,13 @@ public abstract class Benchmark
         final int warmUpRuns;
         final int measurementRuns;
         final Optional<String> outputFileName;
+        final Optional<String> format;
         final boolean print;
         final String fileName;
         final String batchComment;
-        final int threadCount;
+        int threadCount;
+        long chunkSize;
+        final boolean autoTune;
         
         try
         {
@@ -185,12 +227,21 @@ public abstract class Benchmark
                     .orElseThrow(() -> new IllegalArgumentException("Warmup count is required"));
             measurementRuns = getValue(args, "-mc", s -> Integer.valueOf(s))
                     .orElseThrow(() -> new IllegalArgumentException("Measurement count is required"));
-            threadCount = getValue(args, "-t", s -> Integer.valueOf(s)).orElse(1);
+            autoTune = getValue(args, "-t", s -> s.equals("auto")).orElse(false);
+            threadCount = autoTune ? 1 : getValue(args, "-t", s -> Integer.valueOf(s)).orElse(1);
+            chunkSize = getValue(args, "-cs", s -> Long.valueOf(s)).orElse(0L);
 
             batchMode = hasParam(args, "--batchmode").orElse(false);
             outputFileName = getValue(args, "-o", s -> s);
+            format = getValue(args, "--format", s -> s);
             print = hasParam(args, "--print").orElse(false);
 
+            if (format.isPresent() && !ResultWriting.class.isAssignableFrom(ctr.getDeclaringClass()))
+            {
+                System.err.println(ctr.getDeclaringClass().getSimpleName() + " does not support --format");
+                return;
+            }
+
             if (batchMode && args.length < 5)
             {
                 printError();
@@ -215,16 +266,28 @@ public abstract class Benchmark
 
         try
         {
+            if (autoTune)
+            {
+                Benchmark.print(batchMode, () -> "==== AUTOTUNE ==================\n");
+                final var config = AutoTuner.tune(() -> newInstance(ctr), fileName, ctr.getDeclaringClass().getName());
+                threadCount = config.threadCount();
+                chunkSize = config.chunkSize();
+            }
+
+            final int threads = threadCount;
+            final long chunk = chunkSize;
+            // with a format, we measure the streaming into it
+            final String resultFormat = format.orElse(null);
 
             Benchmark.print(batchMode, () -> "==== WARMUP ==================\n");
-            var results = measure(ctr, Mode.WARMUP, warmUpRuns, fileName, batchMode, threadCount);
+            var results = measure(ctr, Mode.WARMUP, warmUpRuns, fileName, batchMode, threads, chunk, resultFormat);
 
             Benchmark.print(batchMode, () -> "==== MEASUREMENT ==================\n");
-            results = measure(ctr, Mode.MEASUREMENT, measurementRuns, fileName, batchMode, threadCount);
+            results = measure(ctr, Mode.MEASUREMENT, measurementRuns, fileName, batchMode, threads, chunk, resultFormat);
 
             Benchmark.print(batchMode, () -> "==== RESULT ========================\n");
             long total = 0;
-            String lastResult = null;
+            byte[] lastResult = null;
 
             for (BenchmarkResult result : results)
             {
@@ -253,15 +316,18 @@ public abstract class Benchmark
             if (print)
             {
                 System.out.println("==== OUTPUT ========================\n");
-                System.out.println(lastResult);
+                System.out.println(new String(lastResult, StandardCharsets.UTF_8));
             }
 
             // do we want to print?
             if (outputFileName.isPresent())
             {
-                var o = Files.newBufferedWriter(Paths.get(outputFileName.get()));
-                o.write(lastResult);
-                o.close();
+                Files.write(Paths.get(outputFileName.get()), lastResult);
+            }
+            else if (format.isPresent())
+            {
+                System.out.write(lastResult);
+                System.out.flush();
             }
         }
         catch (Exception e)
@@ -274,27 +340,18 @@ public abstract class Benchmark
 
     private static List<BenchmarkResult> measure(final Constructor<? extends Benchmark> ctr,
             Mode mode, int iterationCount, String fileName,
-            final boolean batchMode, int threadCount)
+            final boolean batchMode, int threadCount, long chunkSize, final String format)
     {
         final List<BenchmarkResult> results = new ArrayList<>();
 
         for (int i = 0; i < iterationCount; i++)
         {
-            Benchmark benchmark = null;
-            try
-            {
-                benchmark = ctr.newInstance();
-            }
-            catch (InstantiationException | IllegalAccessException | IllegalArgumentException
-                    | InvocationTargetException | SecurityException e)
-            {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
+            final Benchmark benchmark = newInstance(ctr);
 
             benchmark.setThreadCount(threadCount);
+            benchmark.setChunkSize(chunkSize);
             
-            var result = measure(benchmark, fileName);
+            var result = measure(benchmark, fileName, format);
             results.add(result);
 
             Benchmark.print(batchMode,
@@ -304,15 +361,47 @@ public abstract class Benchmark
         return results;
     }
 
-    public static BenchmarkResult measure(final Benchmark benchmark, final String fileName)
+    private static Benchmark newInstance(final Constructor<? extends Benchmark> ctr)
+    {
+        try
+        {
+            return ctr.newInstance();
+        }
+        catch (InstantiationException | IllegalAccessException | IllegalArgumentException
+                | InvocationTargetException | SecurityException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * One run, the result as text or, with a format, streamed into that format
+     *
+     * @param format the format of the {@link ResultWriter} or null for the text of run
+     */
+    public static BenchmarkResult measure(final Benchmark benchmark, final String fileName, final String format)
     {
         try
         {
+            if (format == null)
+            {
+                final long start = System.currentTimeMillis();
+                final String data = benchmark.run(fileName);
+                final long end = System.currentTimeMillis();
+
+                return new BenchmarkResult(end - start, data.getBytes(StandardCharsets.UTF_8));
+            }
+
+            // in memory, so we measure the formatting and not the disk
+            final var out = new ByteArrayOutputStream();
             final long start = System.currentTimeMillis();
-            final String data = benchmark.run(fileName);
+            try (var writer = ResultWriter.of(format, Channels.newChannel(out)))
+            {
+                ((ResultWriting) benchmark).write(fileName, writer);
+            }
             final long end = System.currentTimeMillis();
 
-            return new BenchmarkResult(end - start, data);
+            return new BenchmarkResult(end - start, out.toByteArray());
         }
         catch (IOException ioe)
         {
@@ -323,7 +412,7 @@ public abstract class Benchmark
         return null;
     }
 
-    private static record BenchmarkResult(long runtime, String data)
+    private static record BenchmarkResult(long runtime, byte[] data)
     {
         public String getCRC()
         {
@@ -332,7 +421,7 @@ public abstract class Benchmark
                 // checksum the data to ensure we always produce the same output
                 final MessageDigest digest = MessageDigest.getInstance("SHA-512");
 
-                final byte[] encodedhash = digest.digest(data.getBytes(StandardCharsets.UTF_8));
+                final byte[] encodedhash = digest.digest(data);
                 return Base64.getEncoder().encodeToString(encodedhash);
             }
             catch (NoSuchAlgorithmException alg)
@@ -0,0 +1,447 @@
+package org.onebrc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+
+import org.onebrc.util.BinaryResultWriter;
+import org.onebrc.util.ResultWriter;
+
+/**
+ * Keeps a JVM with hot engines around and answers queries over a Unix domain socket, so
+ * dashboards asking for the same file again and again neither pay for the JVM start and
+ * the warmup nor for the aggregation. The result of a file is kept in our binary format as
+ * long as the file has the same size, modification time and file key. All formats and station
+ * filters are served from that, which is O(stations).
+ *
+ * A query is one line of tab separated fields, the connection is closed after the answer:
+ * <pre>
+ * file [TAB format [TAB station,station,...]]
+ * </pre>
+ * The format is text, json, csv or bin, text is the default. Without a filter, all stations
+ * are returned. Errors come back as a line starting with ERROR.
+ *
+ * The aggregation runs outside of the cache map, the first query for a file puts a task in
+ * and runs it, later queries for the same file wait for that task, queries for other files
+ * don't wait at all. We keep the results of a limited number of files, the one used least
+ * recently goes first.
+ *
+ * The engine must implement {@link ResultWriting}.
+ *
+ * @author Rene Schwietzke
+ */
+public class QueryDaemon implements Closeable
+{
+    public static final int DEFAULT_MAX_FILES = 16;
+
+    private final Path socket;
+    private final Supplier<Benchmark> factory;
+    private final int threadCount;
+    private final int maxFiles;
+
+    private final Map<Path, Result> cache = new ConcurrentHashMap<>();
+    private final AtomicLong aggregations = new AtomicLong();
+    // a clock for the least recently used
+    private final AtomicLong ticks = new AtomicLong();
+
+    private ServerSocketChannel server;
+    private ExecutorService executor;
+
+    /**
+     * What we know about a file
+     */
+    private static record Version(long size, FileTime modified, Object fileKey)
+    {
+        static Version of(final Path file) throws IOException
+        {
+            final var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Version(attributes.size(), attributes.lastModifiedTime(), attributes.fileKey());
+        }
+    }
+
+    /**
+     * The result of a file in the making or done, the data is in our binary format
+     */
+    private static final class Result
+    {
+        final Version version;
+        final FutureTask<ByteBuffer> data;
+        volatile long lastUsed;
+
+        Result(final Version version, final FutureTask<ByteBuffer> data)
+        {
+            this.version = version;
+            this.data = data;
+        }
+    }
+
+    /**
+     * @param socket the socket file, an old one is replaced
+     * @param factory creates the engine
+     * @param threadCount the thread count for the engine
+     */
+    public QueryDaemon(final Path socket, final Supplier<Benchmark> factory, final int threadCount)
+    {
+        this(socket, factory, threadCount, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * @param socket the socket file, an old one is replaced
+     * @param factory creates the engine
+     * @param threadCount the thread count for the engine
+     * @param maxFiles for how many files we keep the result
+     */
+    public QueryDaemon(final Path socket, final Supplier<Benchmark> factory, final int threadCount, final int maxFiles)
+    {
+        if (maxFiles < 1)
+        {
+            throw new IllegalArgumentException("We have to keep at least one file, was " + maxFiles);
+        }
+
+        this.socket = socket;
+        this.factory = factory;
+        this.threadCount = threadCount;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Bind and accept in the background
+     */
+    public QueryDaemon start() throws IOException
+    {
+        Files.deleteIfExists(this.socket);
+
+        this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        this.server.bind(UnixDomainSocketAddress.of(this.socket));
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        this.executor.execute(() ->
+        {
+            while (this.server.isOpen())
+            {
+                try
+                {
+                    final SocketChannel client = this.server.accept();
+                    this.executor.execute(() -> serve(client));
+                }
+                catch (IOException e)
+                {
+                    // closed, we are done
+                }
+            }
+        });
+
+        return this;
+    }
+
+    /**
+     * How often we really had to read a file, mainly for testing
+     */
+    public long aggregations()
+    {
+        return this.aggregations.get();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            if (this.server != null)
+            {
+                this.server.close();
+            }
+            if (this.executor != null)
+            {
+                this.executor.shutdown();
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(this.socket);
+        }
+    }
+
+    private void serve(final SocketChannel client)
+    {
+        try (client)
+        {
+            final String request = readLine(client);
+            try
+            {
+                answer(request, client);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                final String message = "ERROR " + e.getMessage() + "\n";
+                client.write(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        catch (IOException e)
+        {
+            // the client is gone, nothing we can do
+        }
+    }
+
+    /**
+     * Answer a single query
+     */
+    private void answer(final String request, final SocketChannel client) throws IOException
+    {
+        final String[] fields = request.split("\t");
+        final Path file = Path.of(fields[0]);
+        final String format = fields.length > 1 && !fields[1].isBlank() ? fields[1] : "text";
+
+        final BiPredicate<byte[], Integer> filter;
+        if (fields.length > 2 && !fields[2].isBlank())
+        {
+            final List<byte[]> stations = Arrays.stream(fields[2].split(","))
+                    .map(s -> s.getBytes(StandardCharsets.UTF_8)).toList();
+            filter = (name, length) -> stations.stream().anyMatch(s -> Arrays.equals(s, 0, s.length, name, 0, length));
+        }
+        else
+        {
+            filter = (name, length) -> true;
+        }
+
+        final ByteBuffer data = result(file);
+        try (var writer = ResultWriter.of(format, client))
+        {
+            BinaryResultWriter.replay(data, writer, filter);
+        }
+    }
+
+    /**
+     * The cached result or a fresh one when the file has changed. Queries for the same file
+     * wait for each other, others don't.
+     */
+    private ByteBuffer result(final Path file) throws IOException
+    {
+        final Path key = file.toAbsolutePath().normalize();
+        final Version version = Version.of(key);
+
+        while (true)
+        {
+            Result result = this.cache.get(key);
+            if (result == null || !result.version.equals(version))
+            {
+                final Result fresh = new Result(version, new FutureTask<>(() -> aggregate(key)));
+                final boolean ours = result == null
+                        ? this.cache.putIfAbsent(key, fresh) == null
+                        : this.cache.replace(key, result, fresh);
+                if (!ours)
+                {
+                    // someone else was faster, take theirs
+                    continue;
+                }
+
+                result = fresh;
+                evict(key);
+                result.data.run();
+            }
+            result.lastUsed = this.ticks.incrementAndGet();
+
+            try
+            {
+                return result.data.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            catch (ExecutionException e)
+            {
+                // don't keep a failure, the next query tries again
+                this.cache.remove(key, result);
+
+                if (e.getCause() instanceof IOException io)
+                {
+                    throw io;
+                }
+                else if (e.getCause() instanceof RuntimeException r)
+                {
+                    throw r;
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Aggregate the file into our binary format
+     */
+    private ByteBuffer aggregate(final Path file) throws IOException
+    {
+        final Benchmark benchmark = this.factory.get();
+        benchmark.setThreadCount(this.threadCount);
+        if (!(benchmark instanceof ResultWriting engine))
+        {
+            throw new IllegalStateException(benchmark.getClass().getSimpleName() + " cannot write its result");
+        }
+
+        final var out = new ByteArrayOutputStream();
+        try (var writer = ResultWriter.of("bin", Channels.newChannel(out)))
+        {
+            engine.write(file.toString(), writer);
+        }
+        this.aggregations.incrementAndGet();
+
+        return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Drop the least recently used files till we are within the limit again, never the one
+     * we just added. A few files only, a scan is fine.
+     */
+    private void evict(final Path keep)
+    {
+        while (this.cache.size() > this.maxFiles)
+        {
+            Map.Entry<Path, Result> oldest = null;
+            for (var e : this.cache.entrySet())
+            {
+                if (!e.getKey().equals(keep) && (oldest == null || e.getValue().lastUsed < oldest.getValue().lastUsed))
+                {
+                    oldest = e;
+                }
+            }
+            if (oldest == null)
+            {
+                return;
+            }
+            this.cache.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private static String readLine(final SocketChannel channel) throws IOException
+    {
+        final var line = new ByteArrayOutputStream();
+        final ByteBuffer b = ByteBuffer.allocate(1);
+        while (channel.read(b) > 0)
+        {
+            final byte c = b.get(0);
+            if (c == '\n')
+            {
+                break;
+            }
+            line.write(c);
+            b.clear();
+        }
+
+        return line.toString(StandardCharsets.UTF_8).strip();
+    }
+
+    /**
+     * Send a query and return the full answer
+     *
+     * @param socket the socket of the daemon
+     * @param query the query line without the line break
+     * @return the answer
+     */
+    public static byte[] query(final Path socket, final String query) throws IOException
+    {
+        try (var channel = SocketChannel.open(UnixDomainSocketAddress.of(socket)))
+        {
+            channel.write(ByteBuffer.wrap((query + "\n").getBytes(StandardCharsets.UTF_8)));
+            channel.shutdownOutput();
+
+            return Channels.newInputStream(channel).readAllBytes();
+        }
+    }
+
+    /**
+     * Usage:
+     * QueryDaemon -s socket [-e engine] [-t threads] [-c files]
+     * QueryDaemon -s socket -q "file[TAB format[TAB stations]]"
+     */
+    public static void main(String[] args) throws Exception
+    {
+        String socket = null;
+        String engine = "org.onebrc.parallel.BRC086_ResultWriter";
+        String query = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxFiles = DEFAULT_MAX_FILES;
+
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "-s" -> socket = args[i + 1];
+                case "-e" -> engine = args[i + 1];
+                case "-t" -> threads = Integer.parseInt(args[i + 1]);
+                case "-q" -> query = args[i + 1];
+                case "-c" -> maxFiles = Integer.parseInt(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown parameter " + args[i]);
+            }
+        }
+        if (socket == null)
+        {
+            System.err.println("Usage: QueryDaemon -s <socket> [-e <engine class>] [-t <threads>] [-c <files>] | -s <socket> -q <query>");
+            return;
+        }
+
+        if (query != null)
+        {
+            System.out.write(query(Path.of(socket), query));
+            System.out.flush();
+            return;
+        }
+
+        final var clazz = Class.forName(engine).asSubclass(Benchmark.class);
+        if (!ResultWriting.class.isAssignableFrom(clazz))
+        {
+            System.err.println(clazz.getSimpleName() + " cannot write its result, it does not implement ResultWriting");
+            return;
+        }
+        final var ctr = clazz.getDeclaredConstructor();
+        final var daemon = new QueryDaemon(Path.of(socket), () ->
+        {
+            try
+            {
+                return ctr.newInstance();
+            }
+            catch (ReflectiveOperationException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }, threads, maxFiles).start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        {
+            try
+            {
+                daemon.close();
+            }
+            catch (IOException e)
+            {
+                // we are going down anyway
+            }
+        }));
+
+        System.err.format("Listening on %s with %s and %d threads%n", socket, engine, threads);
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,28 @@
+package org.onebrc;
+
+import java.io.IOException;
+
+import org.onebrc.util.ResultWriter;
+
+/**
+ * For the engines that can stream their result into a {@link ResultWriter} instead of
+ * returning it as String. Only those can be used with --format and the QueryDaemon.
+ *
+ * @author Rene Schwietzke
+ */
+public interface ResultWriting
+{
+    /**
+     * Runs like {@link Benchmark#run(String)}, but streams the result into the writer
+     * instead of returning it as String.
+     *
+     * @param fileName
+     *            the file name to use
+     * @param writer
+     *            where the stations go, in order
+     *
+     * @throws IOException
+     *             in case we have an issue with the file name
+     */
+    void write(final String fileName, final ResultWriter writer) throws IOException;
+}
@@ -0,0 +1,267 @@
+// JVM_OPTS: $HIGH_MEM
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.onebrc.classfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.onebrc.Benchmark;
+import org.onebrc.classfile.GeneratedTable.FullException;
+import org.onebrc.util.ChunkSplitter;
+import org.onebrc.util.ChunkSplitter.Chunk;
+import org.onebrc.util.Dialect;
+import org.onebrc.util.HyperLogLog;
+import org.onebrc.util.IncrementalStationTable;
+import org.onebrc.util.MathUtil;
+
+/**
+ * The hot loop is not written by us, it is generated for the run. Once we know the file,
+ * we know the capacity of the table, the dialect and whether an int is enough for the
+ * totals. The {@link ProcessorGenerator} writes a class with these as literals and defines
+ * it as hidden class, see there for the Java equivalent of the loop.
+ *
+ * The capacity comes from the {@link HyperLogLog} estimate. When there are more stations
+ * than estimated, the table throws and we start over with a processor for four times the
+ * capacity, that is cheaper than a table that can grow in the hot loop. The tasks still
+ * running are cancelled, they stop at their next block.
+ *
+ * Int totals are used when even a chunk full of the shortest lines with the largest
+ * temperature cannot overflow them.
+ *
+ * Needs the ClassFile API of JDK 24 or later.
+ *
+ * Difference to BRC094_Dialect: The loop is generated, no reader, the dialect is baked in.
+ *
+ * @author René Schwietzke
+ */
+public class BRC095_ClassFile extends Benchmark
+{
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // the shortest line "a;0\n"
+    private static final int MIN_LINE_LENGTH = 4;
+    // when the estimate could not see any station, such as for other delimiters
+    private static final int MIN_CAPACITY = 2048;
+
+    @Override
+    public boolean honorsChunkSize()
+    {
+        return true;
+    }
+
+    @Override
+    public String run(final String filePath) throws IOException
+    {
+        final Dialect dialect = Dialect.fromSystemProperties();
+
+        final List<Chunk> chunks;
+        try (var channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            // a given chunk size wins, otherwise one chunk per thread
+            chunks = this.getChunkSize() > 0
+                    ? ChunkSplitter.splitBySize(channel, this.getChunkSize())
+                    : ChunkSplitter.split(channel, this.getThreadCount());
+        }
+
+        // can any total overflow an int?
+        final long maxChunk = chunks.stream().mapToLong(Chunk::length).max().orElse(0);
+        final long maxValue = (long) Math.pow(10, dialect.decimals() + 2);
+        final boolean longTotals = maxChunk / MIN_LINE_LENGTH * maxValue > Integer.MAX_VALUE;
+
+        int capacity = Math.max(MIN_CAPACITY, HyperLogLog.tableCapacity(HyperLogLog.estimateStations(Path.of(filePath))));
+        while (true)
+        {
+            try
+            {
+                final IncrementalStationTable result = run(filePath, chunks, ProcessorGenerator.generate(capacity, dialect, longTotals),
+                        capacity, longTotals, dialect.crlf());
+
+                if (dialect.decimals() == 1)
+                {
+                    return result.toTreeMap().toString();
+                }
+
+                // scaled for the dialect
+                final var map = new TreeMap<String, String>();
+                result.forEach((name, offset, length, min, max, total, count) ->
+                    map.put(new String(name, offset, length), MathUtil.toStringFromDecimals(total, count, min, max, dialect.decimals())));
+                return map.toString();
+            }
+            catch (FullException e)
+            {
+                // more stations than estimated, the processor has to be regenerated
+                capacity <<= 2;
+            }
+        }
+    }
+
+    /**
+     * One full pass over the file with the processor
+     */
+    private IncrementalStationTable run(final String filePath, final List<Chunk> chunks, final ChunkProcessor processor,
+            final int capacity, final boolean longTotals, final boolean crlf) throws IOException
+    {
+        try (var executor = new ForkJoinPool(this.getThreadCount());
+             var channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            final List<Mapper> tasks = chunks.stream().map(c -> new Mapper(channel, c, processor, capacity, longTotals, crlf)).toList();
+            tasks.forEach(t -> executor.execute(t));
+
+            // reduce result
+            final IncrementalStationTable result = new IncrementalStationTable(capacity);
+            try
+            {
+                for (var t : tasks)
+                {
+                    t.get().addTo(result);
+                }
+            }
+            catch (ExecutionException e)
+            {
+                // this pass is lost, don't let the others read on, the executor waits for them
+                tasks.forEach(t -> t.cancel(true));
+                executor.shutdownNow();
+
+                if (e.getCause() instanceof FullException full)
+                {
+                    throw full;
+                }
+                throw new RuntimeException(e);
+            }
+            return result;
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Mapper extends RecursiveTask<GeneratedTable>
+    {
+        private final FileChannel channel;
+        private final Chunk chunk;
+        private final ChunkProcessor processor;
+        private final int capacity;
+        private final boolean longTotals;
+        private final boolean crlf;
+
+        public Mapper(final FileChannel channel, final Chunk chunk, final ChunkProcessor processor,
+                final int capacity, final boolean longTotals, final boolean crlf)
+        {
+            this.channel = channel;
+            this.chunk = chunk;
+            this.processor = processor;
+            this.capacity = capacity;
+            this.longTotals = longTotals;
+            this.crlf = crlf;
+        }
+
+        @Override
+        protected GeneratedTable compute()
+        {
+            try
+            {
+                return process();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Read the chunk block by block and hand the complete lines to the processor, the
+         * rest moves to the front of the buffer and waits for the next block
+         */
+        private GeneratedTable process() throws IOException
+        {
+            final GeneratedTable table = new GeneratedTable(this.capacity, this.longTotals);
+            final byte[] data = new byte[BUFFER_SIZE];
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+
+            long pos = this.chunk.start();
+            int rest = 0;
+            while (pos < this.chunk.end())
+            {
+                // another chunk failed, nobody wants our result
+                if (isCancelled())
+                {
+                    return table;
+                }
+
+                buffer.limit((int) Math.min(data.length, rest + this.chunk.end() - pos)).position(rest);
+                final int read = this.channel.read(buffer, pos);
+                if (read < 0)
+                {
+                    break;
+                }
+                pos += read;
+
+                final int filled = rest + read;
+                int last = filled - 1;
+                while (last >= 0 && data[last] != '\n')
+                {
+                    last--;
+                }
+                if (last < 0)
+                {
+                    if (filled == data.length)
+                    {
+                        throw new IOException("Line longer than " + data.length + " bytes before " + pos);
+                    }
+                    rest = filled;
+                    continue;
+                }
+
+                this.processor.process(data, 0, last + 1, table);
+
+                rest = filled - last - 1;
+                System.arraycopy(data, last + 1, data, 0, rest);
+            }
+
+            if (rest > 0)
+            {
+                // the file does not end with a line end, we add one, the processor needs it
+                if (rest + 2 > data.length)
+                {
+                    throw new IOException("Line longer than " + data.length + " bytes at the end");
+                }
+                if (this.crlf)
+                {
+                    data[rest++] = '\r';
+                }
+                data[rest++] = '\n';
+                this.processor.process(data, 0, rest, table);
+            }
+
+            return table;
+        }
+    }
+
+    public static void main(String[] args) throws NoSuchMethodException, SecurityException
+    {
+        Benchmark.run(BRC095_ClassFile.class, args);
+    }
+}
@@ -0,0 +1,17 @@
+package org.onebrc.classfile;
+
+/**
+ * What the {@link ProcessorGenerator} implements, the hot loop over a block of complete lines.
+ */
+public interface ChunkProcessor
+{
+    /**
+     * Parse all lines and put them into the table
+     *
+     * @param data the data
+     * @param from the start of the first line
+     * @param to the end of the last line, behind its line end
+     * @param table the table of the capacity the processor was generated for
+     */
+    void process(byte[] data, int from, int to, GeneratedTable table);
+}
@@ -0,0 +1,139 @@
+package org.onebrc.classfile;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.onebrc.util.IncrementalStationTable;
+import org.onebrc.util.StationSink;
+
+/**
+ * The station table of a generated processor. The processor does the probing, the hit
+ * check and the update itself with its capacity as literal mask, we only hold the arrays
+ * and the cold parts, comparing names and adding a new station.
+ *
+ * One array per value, so the processor can keep them in locals. Only one of the total
+ * arrays exists, which one is decided by the generator.
+ *
+ * The capacity is fixed, when the table gets too full, we throw a {@link FullException}
+ * and the engine has to generate a processor with a larger capacity.
+ */
+public final class GeneratedTable
+{
+    public final int[] hashes;
+    // 0 means empty, names have at least one byte
+    public final int[] lengths;
+    public final int[] offsets;
+    public final int[] mins;
+    public final int[] maxs;
+    public final int[] counts;
+    public final int[] intTotals;
+    public final long[] longTotals;
+
+    private final int limit;
+    private int size;
+
+    private byte[] names = new byte[64 * 1024];
+    private int namesSize;
+
+    /**
+     * There are more stations than the capacity allows
+     */
+    @SuppressWarnings("serial")
+    public static class FullException extends RuntimeException
+    {
+        public FullException(final int capacity)
+        {
+            super("More stations than a capacity of " + capacity + " can hold");
+        }
+    }
+
+    /**
+     * @param capacity a power of two, the same the processor was generated for
+     * @param longTotals true for long totals, false for int
+     */
+    public GeneratedTable(final int capacity, final boolean longTotals)
+    {
+        this.hashes = new int[capacity];
+        this.lengths = new int[capacity];
+        this.offsets = new int[capacity];
+        this.mins = new int[capacity];
+        this.maxs = new int[capacity];
+        this.counts = new int[capacity];
+        this.intTotals = longTotals ? null : new int[capacity];
+        this.longTotals = longTotals ? new long[capacity] : null;
+
+        // load factor 0.75 at most, we need empty slots to stop probing
+        this.limit = capacity - (capacity >> 2);
+    }
+
+    /**
+     * Is the station in the slot the one of the line, the hash matched already
+     */
+    public boolean matches(final int index, final byte[] data, final int start, final int length)
+    {
+        final int offset = this.offsets[index];
+        return this.lengths[index] == length
+                && Arrays.equals(this.names, offset, offset + length, data, start, start + length);
+    }
+
+    /**
+     * Put a new station into the empty slot, the update of the values follows
+     */
+    public void insert(final int index, final int hash, final byte[] data, final int start, final int length)
+    {
+        if (++this.size > this.limit)
+        {
+            throw new FullException(this.hashes.length);
+        }
+
+        if (this.namesSize + length > this.names.length)
+        {
+            this.names = Arrays.copyOf(this.names, Math.max(this.names.length << 1, this.namesSize + length));
+        }
+        System.arraycopy(data, start, this.names, this.namesSize, length);
+
+        this.hashes[index] = hash;
+        this.lengths[index] = length;
+        this.offsets[index] = this.namesSize;
+        this.mins[index] = Integer.MAX_VALUE;
+        this.maxs[index] = Integer.MIN_VALUE;
+
+        this.namesSize += length;
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Hands all stations to the sink, in no particular order
+     */
+    public void forEach(final StationSink sink) throws IOException
+    {
+        for (int i = 0; i < this.lengths.length; i++)
+        {
+            if (this.lengths[i] != 0)
+            {
+                final long total = this.longTotals != null ? this.longTotals[i] : this.intTotals[i];
+                sink.station(this.names, this.offsets[i], this.lengths[i], this.mins[i], this.maxs[i], total, this.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Merges all stations into the target, our hashes are the ones of the readers
+     */
+    public void addTo(final IncrementalStationTable target)
+    {
+        for (int i = 0; i < this.lengths.length; i++)
+        {
+            if (this.lengths[i] != 0)
+            {
+                final long total = this.longTotals != null ? this.longTotals[i] : this.intTotals[i];
+                target.add(this.names, this.offsets[i], this.lengths[i], this.hashes[i],
+                        this.mins[i], this.maxs[i], total, this.counts[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.onebrc.classfile;
+
+import static java.lang.constant.ConstantDescs.CD_Object;
+import static java.lang.constant.ConstantDescs.CD_boolean;
+import static java.lang.constant.ConstantDescs.CD_byte;
+import static java.lang.constant.ConstantDescs.CD_int;
+import static java.lang.constant.ConstantDescs.CD_long;
+import static java.lang.constant.ConstantDescs.CD_void;
+import static java.lang.constant.ConstantDescs.INIT_NAME;
+import static java.lang.constant.ConstantDescs.MTD_void;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Label;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+
+import org.onebrc.util.Dialect;
+
+/**
+ * Generates a {@link ChunkProcessor} for one run with the ClassFile API and defines it as
+ * a hidden class. What our hand-written engines keep in fields, the table mask, the
+ * delimiter, the line end and whether the totals are int or long, becomes a literal in
+ * the bytecode, so the JIT does not have to prove that a field never changes.
+ *
+ * The generated method is this Java, with the UPPERCASE parts as literals:
+ * <pre>
+ * public void process(byte[] data, int pos, int to, GeneratedTable t)
+ * {
+ *     int[] hashes = t.hashes; ... TOTALS totals = t.TOTALS;
+ *     while (pos &lt; to)
+ *     {
+ *         int start = pos, hash = 0, c;
+ *         while ((c = data[pos]) != DELIMITER) { hash = hash * 31 + c; pos++; }
+ *         int nameEnd = pos++;
+ *
+ *         boolean negative = false; int value = 0;
+ *         if (data[pos] == '-') { negative = true; pos++; }
+ *         while ((c = data[pos]) != EOL) { if (c != '.') value = value * 10 + c - '0'; pos++; }
+ *         pos += EOL_LENGTH;
+ *         if (negative) value = -value;
+ *
+ *         int index = hash * 0x9E3779B9; index = (index ^ (index &gt;&gt;&gt; 16)) &amp; MASK;
+ *         while (true)
+ *         {
+ *             if (lengths[index] == 0) { t.insert(index, hash, data, start, nameEnd - start); break; }
+ *             if (hashes[index] == hash &amp;&amp; t.matches(index, data, start, nameEnd - start)) break;
+ *             index = (index + 1) &amp; MASK;
+ *         }
+ *         if (mins[index] &gt; value) mins[index] = value;
+ *         if (maxs[index] &lt; value) maxs[index] = value;
+ *         totals[index] += value;
+ *         counts[index]++;
+ *     }
+ * }
+ * </pre>
+ * The hash is the one of our readers, so the stations can go into other tables later.
+ */
+public final class ProcessorGenerator
+{
+    private static final ClassDesc CD_PROCESSOR = ClassDesc.of(ChunkProcessor.class.getName());
+    private static final ClassDesc CD_TABLE = ClassDesc.of(GeneratedTable.class.getName());
+    // hidden classes have to be in the package of the lookup
+    private static final ClassDesc CD_GENERATED = ClassDesc.of(ProcessorGenerator.class.getPackageName() + ".GeneratedProcessor");
+
+    private static final ClassDesc CD_INT_ARRAY = CD_int.arrayType();
+    private static final ClassDesc CD_LONG_ARRAY = CD_long.arrayType();
+    private static final ClassDesc CD_BYTE_ARRAY = CD_byte.arrayType();
+
+    private static final MethodTypeDesc MTD_PROCESS = MethodTypeDesc.of(CD_void, CD_BYTE_ARRAY, CD_int, CD_int, CD_TABLE);
+    private static final MethodTypeDesc MTD_MATCHES = MethodTypeDesc.of(CD_boolean, CD_int, CD_BYTE_ARRAY, CD_int, CD_int);
+    private static final MethodTypeDesc MTD_INSERT = MethodTypeDesc.of(CD_void, CD_int, CD_int, CD_BYTE_ARRAY, CD_int, CD_int);
+
+    private static final int GOLDEN = 0x9E3779B9;
+
+    // our locals
+    private static final int DATA = 1;
+    private static final int POS = 2;
+    private static final int TO = 3;
+    private static final int TABLE = 4;
+    private static final int START = 5;
+    private static final int HASH = 6;
+    private static final int C = 7;
+    private static final int NAME_END = 8;
+    private static final int VALUE = 9;
+    private static final int NEGATIVE = 10;
+    private static final int INDEX = 11;
+    private static final int HASHES = 12;
+    private static final int LENGTHS = 13;
+    private static final int MINS = 14;
+    private static final int MAXS = 15;
+    private static final int COUNTS = 16;
+    private static final int TOTALS = 17;
+
+    private ProcessorGenerator()
+    {
+    }
+
+    /**
+     * Generate and define a processor
+     *
+     * @param capacity the capacity of the tables, a power of two
+     * @param dialect the delimiter and line end, the decimals don't matter for parsing
+     * @param longTotals long instead of int totals
+     * @return a new instance of the processor
+     */
+    public static ChunkProcessor generate(final int capacity, final Dialect dialect, final boolean longTotals)
+    {
+        if (Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException("Capacity must be a power of two, was " + capacity);
+        }
+
+        final byte[] bytes = generateBytes(capacity, dialect, longTotals);
+        try
+        {
+            final Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (ChunkProcessor) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException("Cannot define the generated processor", e);
+        }
+    }
+
+    /**
+     * The class file, separate for testing and looking at it with javap
+     */
+    static byte[] generateBytes(final int capacity, final Dialect dialect, final boolean longTotals)
+    {
+        return ClassFile.of().build(CD_GENERATED, clb ->
+        {
+            clb.withFlags(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL);
+            clb.withSuperclass(CD_Object);
+            clb.withInterfaceSymbols(CD_PROCESSOR);
+
+            clb.withMethodBody(INIT_NAME, MTD_void, ClassFile.ACC_PUBLIC, cb ->
+            {
+                cb.aload(0);
+                cb.invokespecial(CD_Object, INIT_NAME, MTD_void);
+                cb.return_();
+            });
+
+            clb.withMethodBody("process", MTD_PROCESS, ClassFile.ACC_PUBLIC,
+                    cb -> process(cb, capacity - 1, dialect, longTotals));
+        });
+    }
+
+    private static void process(final CodeBuilder cb, final int mask, final Dialect dialect, final boolean longTotals)
+    {
+        final Label loop = cb.newLabel();
+        final Label end = cb.newLabel();
+        final Label name = cb.newLabel();
+        final Label nameEnd = cb.newLabel();
+        final Label digits = cb.newLabel();
+        final Label skip = cb.newLabel();
+        final Label numberEnd = cb.newLabel();
+        final Label positive = cb.newLabel();
+        final Label probe = cb.newLabel();
+        final Label next = cb.newLabel();
+        final Label insert = cb.newLabel();
+        final Label update = cb.newLabel();
+        final Label noMin = cb.newLabel();
+        final Label noMax = cb.newLabel();
+
+        // the arrays into locals
+        cb.aload(TABLE).getfield(CD_TABLE, "hashes", CD_INT_ARRAY).astore(HASHES);
+        cb.aload(TABLE).getfield(CD_TABLE, "lengths", CD_INT_ARRAY).astore(LENGTHS);
+        cb.aload(TABLE).getfield(CD_TABLE, "mins", CD_INT_ARRAY).astore(MINS);
+        cb.aload(TABLE).getfield(CD_TABLE, "maxs", CD_INT_ARRAY).astore(MAXS);
+        cb.aload(TABLE).getfield(CD_TABLE, "counts", CD_INT_ARRAY).astore(COUNTS);
+        if (longTotals)
+        {
+            cb.aload(TABLE).getfield(CD_TABLE, "longTotals", CD_LONG_ARRAY).astore(TOTALS);
+        }
+        else
+        {
+            cb.aload(TABLE).getfield(CD_TABLE, "intTotals", CD_INT_ARRAY).astore(TOTALS);
+        }
+
+        cb.labelBinding(loop);
+        cb.iload(POS).iload(TO).if_icmpge(end);
+        cb.iload(POS).istore(START);
+        cb.iconst_0().istore(HASH);
+
+        // the name and its hash
+        cb.labelBinding(name);
+        cb.aload(DATA).iload(POS).baload().dup().istore(C);
+        cb.loadConstant((int) dialect.delimiter()).if_icmpeq(nameEnd);
+        cb.iload(HASH).bipush(31).imul().iload(C).iadd().istore(HASH);
+        cb.iinc(POS, 1).goto_(name);
+
+        cb.labelBinding(nameEnd);
+        cb.iload(POS).istore(NAME_END);
+        cb.iinc(POS, 1);
+
+        // the temperature, all digits, the dot is skipped
+        cb.iconst_0().istore(NEGATIVE);
+        cb.iconst_0().istore(VALUE);
+        cb.aload(DATA).iload(POS).baload().bipush('-').if_icmpne(digits);
+        cb.iconst_1().istore(NEGATIVE);
+        cb.iinc(POS, 1);
+
+        cb.labelBinding(digits);
+        cb.aload(DATA).iload(POS).baload().dup().istore(C);
+        cb.bipush(dialect.crlf() ? '\r' : '\n').if_icmpeq(numberEnd);
+        cb.iload(C).bipush('.').if_icmpeq(skip);
+        cb.iload(VALUE).bipush(10).imul().iload(C).iadd().bipush('0').isub().istore(VALUE);
+        cb.labelBinding(skip);
+        cb.iinc(POS, 1).goto_(digits);
+
+        cb.labelBinding(numberEnd);
+        cb.iinc(POS, dialect.crlf() ? 2 : 1);
+        cb.iload(NEGATIVE).ifeq(positive);
+        cb.iload(VALUE).ineg().istore(VALUE);
+        cb.labelBinding(positive);
+
+        // spread the hash, the mask is a literal
+        cb.iload(HASH).loadConstant(GOLDEN).imul().istore(INDEX);
+        cb.iload(INDEX).iload(INDEX).bipush(16).iushr().ixor().loadConstant(mask).iand().istore(INDEX);
+
+        cb.labelBinding(probe);
+        cb.aload(LENGTHS).iload(INDEX).iaload().ifeq(insert);
+        cb.aload(HASHES).iload(INDEX).iaload().iload(HASH).if_icmpne(next);
+        cb.aload(TABLE).iload(INDEX).aload(DATA).iload(START).iload(NAME_END).iload(START).isub();
+        cb.invokevirtual(CD_TABLE, "matches", MTD_MATCHES).ifne(update);
+        cb.labelBinding(next);
+        cb.iload(INDEX).iconst_1().iadd().loadConstant(mask).iand().istore(INDEX);
+        cb.goto_(probe);
+
+        cb.labelBinding(insert);
+        cb.aload(TABLE).iload(INDEX).iload(HASH).aload(DATA).iload(START).iload(NAME_END).iload(START).isub();
+        cb.invokevirtual(CD_TABLE, "insert", MTD_INSERT);
+
+        // the values
+        cb.labelBinding(update);
+        cb.aload(MINS).iload(INDEX).iaload().iload(VALUE).if_icmple(noMin);
+        cb.aload(MINS).iload(INDEX).iload(VALUE).iastore();
+        cb.labelBinding(noMin);
+        cb.aload(MAXS).iload(INDEX).iaload().iload(VALUE).if_icmpge(noMax);
+        cb.aload(MAXS).iload(INDEX).iload(VALUE).iastore();
+        cb.labelBinding(noMax);
+        if (longTotals)
+        {
+            cb.aload(TOTALS).iload(INDEX).aload(TOTALS).iload(INDEX).laload().iload(VALUE).i2l().ladd().lastore();
+        }
+        else
+        {
+            cb.aload(TOTALS).iload(INDEX).aload(TOTALS).iload(INDEX).iaload().iload(VALUE).iadd().iastore();
+        }
+        cb.aload(COUNTS).iload(INDEX).aload(COUNTS).iload(INDEX).iaload().iconst_1().iadd().iastore();
+        cb.goto_(loop);
+
+        cb.labelBinding(end);
+        cb.return_();
+    }
+}
@@ -0,0 +1,543 @@
+// JVM_OPTS: $HIGH_MEM
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.onebrc.parallel;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.onebrc.Benchmark;
+import org.onebrc.util.ChunkSplitter;
+import org.onebrc.util.ChunkSplitter.Chunk;
+import org.onebrc.util.MathUtil;
+import org.onebrc.util.PositionableByteReader;
+import org.onebrc.util.PositionableByteReader.LineView;
+
+/**
+ * Split the file with the shared ChunkSplitter into exact line aligned chunks. The
+ * readers don't have to skip a first half line anymore and stop exactly at the end.
+ *
+ * Difference to BRC081_BulkLineView: Chunks come from the ChunkSplitter, hence there is
+ * no recursive splitting in the tasks anymore, the run method creates all tasks. Respects
+ * the chunk size (-cs), so it can be autotuned.
+ *
+ * @author René Schwietzke
+ */
+public class BRC083_ChunkSplitter extends Benchmark
+{
+    /**
+     * Holds our temperature data without the station, because the
+     * map already knows that
+     */
+    private static class City
+    {
+        public byte[] city;
+        public int hashCode;
+        // keep the length here to avoid accessing it from the array
+        public int length;
+
+        private int min;
+        private int max;
+        private int total;
+        private int count;
+
+        public City(final LineView line)
+        {
+            this.length = line.cityLength();
+            this.city = new byte[this.length];
+
+            System.arraycopy(line.bytes, line.start, this.city, 0, this.length);
+            this.hashCode = line.cityHash;
+
+            this.min = line.temperature;
+            this.max = line.temperature;
+            this.total = line.temperature;
+            this.count = 1;
+        }
+
+        /**
+         * This is hot code that runs again and again for every line, so we want to keep it as small as possible,
+         * @param temperature
+         */
+        public void merge(final int temperature)
+        {
+            if (temperature > this.max)
+            {
+                this.max = temperature;
+            }
+            else if (temperature < this.min)
+            {
+                this.min = temperature;
+            }
+            // this is here to let the expensive branch prediction with a likely
+            // miss run first and when we are in the branch, we can fill
+            // the rest of the pipeline with this
+            // if this is first, we have less instructions but more cycles 
+            // cycles are time, not instructions!!!
+            this.total += temperature;
+            this.count += 1;
+        }
+
+        /**
+         * This is hot code that runs again and again for every line, so we want to keep it as small as possible,
+         * @param temperature
+         */
+        public void merge(final City city)
+        {
+            if (city.max > this.max)
+            {
+                this.max = city.max;
+            }
+            if (city.min < this.min)
+            {
+                this.min = city.min;
+            }
+            // this is here to let the expensive branch prediction with a likely
+            // miss run first and when we are in the branch, we can fill
+            // the rest of the pipeline with this
+            // if this is first, we have less instructions but more cycles 
+            // cycles are time, not instructions!!!
+            this.total += city.total;
+            this.count += city.count;
+        }
+        
+        /**
+         * But our standard TreeMap will fail otherwise, not safe, but
+         * we know what we do. This is not hot, because we only need that for the 
+         * TreeMap final calculations.
+         * 
+         * @param o the other city to compare with
+         */
+        @Override
+        public boolean equals(Object o)
+        {
+            City other = (City)o;
+            return Arrays.compare(this.city, other.city) == 0;
+        }
+
+        public boolean equalsLine(final LineView line)
+        {
+            if (this.length == line.cityLength())
+            {
+                final int start = line.start;
+                for (int i = 0; i < this.length; i++)
+                {
+                    if (this.city[i] != line.bytes[start + i])
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+        
+        public String getCity()
+        {
+            return new String(this.city);
+        }
+
+        /**
+         * We need that to ensure we use the city as defining key.
+         */
+        @Override
+        public int hashCode()
+        {
+            // for our treemap
+            return this.hashCode;
+        }
+        
+        public String toString()
+        {
+            // we delegate the formatting to our math util to
+            // ensure we do the same everywhere, helps us later to 
+            // change the accuracy if needed
+            return MathUtil.toStringFromInteger(total, count, min, max);
+        }
+    }
+
+    public static class LightSet
+    {
+        private City[] data;
+        private int size;
+        private int mask;  
+        private int threshold;
+
+        public LightSet(int initialCapacity)
+        {
+            if (initialCapacity < 7)
+            {
+                throw new IllegalArgumentException("Capacity must be >= 7");
+            }
+
+            // we need a power of two for the capacity to be able to run modules as bitwise AND
+            final int capacity = nextPowerOfTwo(initialCapacity);
+
+            this.mask = capacity - 1;
+            this.threshold = capacity >> 1; // load factor 0.5
+            this.data = new City[capacity];
+        }
+
+        /**
+         * Get value for key
+         * 
+         * Best case: 2 branches, key found
+         * Worst case: N branches, key not found after N collisions
+         * 
+         * @param key   the key to search for
+         */
+        public void update(final LineView line)
+        {
+            final int index = line.cityHash & this.mask;
+
+            final City city = this.data[index];
+            if (city == null)
+            {
+                add(line, index);
+            }
+            else if (city.equalsLine(line))
+            {
+                city.merge(line.temperature); 
+            }
+            else
+            {
+                // expensive path
+                updateCollision(line, index);
+            }
+        }
+
+        /**
+         * This add is meant to take some of the code out of the update method
+         * to make it more inlineable
+         */
+        private void add(final LineView line, int index)
+        {
+            this.data[index] = new City(line);
+            this.size++;
+
+            // check size
+            if (this.size > this.threshold)
+            {
+                resize();
+            }
+        }
+
+        /**
+         * We handle that as separate method to keep the main get() fast and inlineable.
+         * 
+         * @param key   the key to search for
+         * @param index the original index where the collision happened
+         * @return     the value or null
+         */
+        private void updateCollision(final LineView line, int index)
+        {
+            while (true)
+            {
+                //String c = line.toCity();
+                index = (index + 1) & this.mask;
+
+                final City city = this.data[index];
+                if (city == null)
+                {
+                    add(line, index);
+                    // System.out.println("Collisions Add: " + ++c);
+                    break;
+                }
+                else if (city.equalsLine(line))
+                {
+                    city.merge(line.temperature); 
+                    //System.out.println("Collisions Merge: " + ++c);
+                    break;
+                }
+            }
+        }
+
+        public void add(final City city)
+        {
+            final int hash = city.hashCode();
+            final int index = hash & this.mask;
+
+            final City c = this.data[index];
+            if (c == null)
+            {
+                this.data[index] = city;
+                this.size++;
+
+                // check size
+                if (this.size > this.threshold)
+                {
+                    resize();
+                }
+            }
+            else if (city.equals(c))
+            {
+                this.data[index].merge(city);
+            }
+            else
+            {
+                addCollision(city, index);
+            }
+        }
+
+        private void addCollision(City city, int index)
+        {
+            while (true)
+            {
+                index = (index + 1) & this.mask;
+
+                final City c = this.data[index];
+                if (c == null)
+                {
+                    this.data[index] = city;
+                    this.size++;
+
+                    // check size
+                    if (this.size > this.threshold)
+                    {
+                        resize();
+                    }
+
+                    return;
+                }
+                else if (city.equals(c))
+                {
+                    this.data[index].merge(city);
+                    return;
+                }
+            }
+        }
+
+        private void resize()
+        {
+            final City[] oldData = this.data;
+            this.data = new City[oldData.length << 1];
+
+            this.mask = this.data.length - 1;
+            this.threshold = this.data.length >> 1;
+
+            // size is new
+            this.size = 0;
+
+            // ok, we use put to reinsert everything
+            for (int i = 0; i < oldData.length; i++)
+            {
+                final City c = oldData[i];
+                if (c != null)
+                {
+                    this.add(c);
+                }
+            }
+        }
+
+        public int size()
+        {
+            return this.size;
+        }
+
+        public TreeMap<String, City> toTreeMap()
+        {
+            final var map = new TreeMap<String, City>();
+
+            // ok, we use put to reinsert everything
+            for (int i = 0; i < this.data.length; i++)
+            {
+                final City c = this.data[i];
+                if (c != null)
+                {
+                    map.put(c.getCity(),  c);
+                }
+            }
+
+            return map;
+        }
+
+        public List<City> values()
+        {
+            final var keys = new ArrayList<City>(this.size);
+
+            for (int i = 0; i < this.data.length; i++)
+            {
+                final City c = this.data[i];
+                if (c != null)
+                {
+                    keys.add(c);
+                }
+            }
+
+            return keys;
+        }
+
+        public static int nextPowerOfTwo(final int n)
+        {
+            if (n <= 0) 
+            {
+                return 1;
+            }
+
+            // Check if n is already a power of two
+            if ((n & (n - 1)) == 0) 
+            {
+                return n;
+            } 
+
+            return Integer.highestOneBit(n) << 1;
+        }
+    }
+
+    @Override
+    public boolean honorsChunkSize()
+    {
+        return true;
+    }
+
+    @Override
+    public String run(final String filePath) throws IOException
+    {
+        final List<Chunk> chunks;
+        try (var channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            // a given chunk size wins, otherwise one chunk per thread
+            chunks = this.getChunkSize() > 0 
+                    ? ChunkSplitter.splitBySize(channel, this.getChunkSize())
+                    : ChunkSplitter.split(channel, this.getThreadCount());
+        }
+
+        try (var executor = new ForkJoinPool(this.getThreadCount()))
+        {
+            final List<Mapper> tasks = chunks.stream().map(c -> new Mapper(filePath, c)).toList();
+            tasks.forEach(t -> executor.execute(t));
+
+            // reduce result
+            final LightSet cities = new LightSet(4096);
+            for (var t : tasks) 
+            {
+                // we can just add, the LightSet deals with 
+                // existing entries by merging them
+                t.get().values().forEach(c -> cities.add(c));
+            }
+
+            return cities.toTreeMap().toString();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        } 
+        catch (ExecutionException e) 
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    class Mapper extends RecursiveTask<LightSet>
+    {
+        private final String filePath;
+        private final Chunk chunk;
+
+        public Mapper(String filePath, Chunk chunk)
+        {
+            this.filePath = filePath;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected LightSet compute() 
+        {
+            try (var r = new PositionableByteReader(filePath, chunk, false))
+            {
+                LineView line;
+                final LightSet cities = new LightSet(4096);
+
+                while ((line = r.readLineView()) != null)
+                {
+                    // second our double temperature
+                    line.temperature = parseInteger(line.bytes, line.semicolon + 1, line.end);
+
+                    // create new when needed, mutate when merging
+                    cities.update(line);
+                }
+
+                return cities;
+            } 
+            catch (IOException e) 
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+    
+    private static final int DIGITOFFSET = 48;
+
+    /**
+     * Parses a double but ends up with an int, only because we know
+     * the format of the results -99.9 to 99.9
+     * 
+     * Best case, two branches
+     * Worst case, two branches
+     */
+    public static int parseInteger(final byte[] s, int offset, final int end)
+    {
+        int l = end - offset;
+        var p0 = s[end - 1];
+        var p2 = s[end - 3] * 10;
+        var value = p2 + p0 - (DIGITOFFSET * 10 + DIGITOFFSET);
+        
+        final byte firstChar = s[offset];
+        if (firstChar == '-')
+        {
+            if (l == 5)
+            {
+                // -99.9
+                var p3 = s[end - 4] * 100;
+                value = p3 + value - (DIGITOFFSET * 100);
+            }
+            else
+            {
+                // -9.9
+            }
+            return -value;
+        }
+        else
+        {
+            if (l == 4)
+            {
+                // 99.9
+                // we can use firstChar directly as we know its not '-'
+                var p3 = firstChar * 100;
+                value = p3 + value - (DIGITOFFSET * 100);
+            }
+            else
+            {
+                // 9.9
+            }
+            return value;
+        }
+    }
+    
+    public static void main(String[] args) throws NoSuchMethodException, SecurityException
+    {
+        Benchmark.run(BRC083_ChunkSplitter.class, args);
+    }
+}
@@ -0,0 +1,352 @@
+// JVM_OPTS: $HIGH_MEM
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.onebrc.parallel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.onebrc.Benchmark;
+import org.onebrc.ResultWriting;
+import org.onebrc.util.ChunkSplitter;
+import org.onebrc.util.ChunkSplitter.Chunk;
+import org.onebrc.util.IncrementalStationTable;
+import org.onebrc.util.PositionableByteReader;
+import org.onebrc.util.PositionableByteReader.LineView;
+import org.onebrc.util.ResultWriter;
+import org.onebrc.util.StationSpiller;
+import org.onebrc.util.TextResultWriter;
+
+/**
+ * With tens of millions of stations, the tables of the threads don't fit into the heap
+ * anymore. Instead of asking for more -Xmx, we cap the memory of the tables. All live tables,
+ * the ones of the running tasks and the combined one of the finished tasks, count against
+ * one budget. The tasks report how much their table grew, when the budget is used up, the
+ * reporting task writes its table to disk partitioned by hash and starts with an empty one.
+ * A finished task hands its table over right away, it is added to the combined table or,
+ * when that does not fit, spilled. So no finished table waits for the others. At the end,
+ * the StationSpiller aggregates one partition after the other and merges the sorted
+ * partitions into the result, a partition that does not fit into the budget is split again.
+ *
+ * As long as nothing was spilled, this is BRC091 and all happens in memory.
+ *
+ * -Donebrc.memory=512m caps the tables, k, m and g work, default is a quarter of the max heap.
+ * -Donebrc.spill=dir is where the partitions go, default is the temp directory.
+ *
+ * 64 partitions, a partition of 100M stations holds about 1.5M of them and fits easily,
+ * anything skewed or larger is split by the spiller.
+ *
+ * Difference to BRC091_IncrementalRehash: Memory cap with spilling to disk, streams the
+ * result into a ResultWriter, so it supports --format too.
+ *
+ * @author René Schwietzke
+ */
+public class BRC092_Spill extends Benchmark implements ResultWriting
+{
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int PARTITION_BITS = 6;
+
+    // checking the memory for every line is wasted time, it only changes with new stations
+    private static final int CHECK_MASK = 0xFFF;
+
+    /**
+     * Bytes with an optional k, m or g
+     */
+    static long parseMemory(final String value)
+    {
+        final String v = value.trim().toLowerCase();
+        final char unit = v.charAt(v.length() - 1);
+        final long factor = switch (unit)
+        {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            default -> 1L;
+        };
+
+        return Long.parseLong(factor == 1 ? v : v.substring(0, v.length() - 1)) * factor;
+    }
+
+    @Override
+    public boolean honorsChunkSize()
+    {
+        return true;
+    }
+
+    @Override
+    public String run(final String filePath) throws IOException
+    {
+        final var out = new ByteArrayOutputStream();
+        try (var writer = new TextResultWriter(Channels.newChannel(out)))
+        {
+            write(filePath, writer);
+        }
+
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(final String filePath, final ResultWriter writer) throws IOException
+    {
+        final String memory = System.getProperty("onebrc.memory");
+        final long budget = memory != null ? parseMemory(memory) : Runtime.getRuntime().maxMemory() / 4;
+
+        final String spillDir = System.getProperty("onebrc.spill");
+
+        final List<Chunk> chunks;
+        try (var channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            // a given chunk size wins, otherwise one chunk per thread
+            chunks = this.getChunkSize() > 0 
+                    ? ChunkSplitter.splitBySize(channel, this.getChunkSize())
+                    : ChunkSplitter.split(channel, this.getThreadCount());
+        }
+
+        try (var spiller = new StationSpiller(spillDir != null ? Path.of(spillDir) : null, PARTITION_BITS);
+             var executor = new ForkJoinPool(this.getThreadCount()))
+        {
+            final Collector collector = new Collector(spiller, budget);
+            final List<Mapper> tasks = chunks.stream().map(c -> new Mapper(filePath, c, collector)).toList();
+            tasks.forEach(t -> executor.execute(t));
+
+            // wait for all, only then we know if anyone spilled
+            for (var t : tasks) 
+            {
+                t.get();
+            }
+
+            collector.finish(writer);
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        } 
+        catch (ExecutionException e) 
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Keeps the books of the one budget all live tables share and owns the combined table
+     * of the finished tasks
+     */
+    static class Collector
+    {
+        private final StationSpiller spiller;
+        private final long budget;
+        private final AtomicLong used = new AtomicLong();
+
+        // guarded by this
+        private IncrementalStationTable combined = new IncrementalStationTable(INITIAL_CAPACITY);
+        private long combinedMemory;
+
+        Collector(final StationSpiller spiller, final long budget)
+        {
+            this.spiller = spiller;
+            this.budget = budget;
+            this.combinedMemory = this.combined.memory();
+            this.used.set(this.combinedMemory);
+        }
+
+        /**
+         * A table grew or shrank by delta bytes
+         *
+         * @return true when the budget is used up
+         */
+        boolean grow(final long delta)
+        {
+            return this.used.addAndGet(delta) > this.budget;
+        }
+
+        /**
+         * A table of this many bytes has been spilled and is gone
+         */
+        void release(final long bytes)
+        {
+            this.used.addAndGet(-bytes);
+        }
+
+        /**
+         * Take over the table of a finished task, it is accounted with the given bytes
+         */
+        synchronized void add(final IncrementalStationTable table, final long reported) throws IOException
+        {
+            if (this.used.get() > this.budget)
+            {
+                // no room to combine, straight to disk
+                this.spiller.spill(table);
+                release(reported);
+                return;
+            }
+
+            this.combined.addAll(table);
+            final long memory = this.combined.memory();
+            // the table of the task is gone, the combined one grew
+            final long delta = memory - this.combinedMemory - reported;
+            this.combinedMemory = memory;
+
+            if (grow(delta))
+            {
+                this.spiller.spill(this.combined);
+                release(this.combinedMemory);
+                this.combined = new IncrementalStationTable(INITIAL_CAPACITY);
+                this.combinedMemory = this.combined.memory();
+                grow(this.combinedMemory);
+            }
+        }
+
+        /**
+         * All tasks are done, hand the stations to the writer
+         */
+        synchronized void finish(final ResultWriter writer) throws IOException
+        {
+            if (this.spiller.spills() == 0)
+            {
+                // all in memory
+                this.combined.forEachOrdered(writer);
+                return;
+            }
+
+            // the rest goes to disk too, the merge gets the full budget
+            this.spiller.spill(this.combined);
+            this.combined = null;
+            this.spiller.merge(writer, this.budget);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Mapper extends RecursiveAction
+    {
+        private final String filePath;
+        private final Chunk chunk;
+        private final Collector collector;
+
+        public Mapper(String filePath, Chunk chunk, Collector collector)
+        {
+            this.filePath = filePath;
+            this.chunk = chunk;
+            this.collector = collector;
+        }
+
+        @Override
+        protected void compute() 
+        {
+            try (var r = new PositionableByteReader(filePath, chunk, false))
+            {
+                LineView line;
+                IncrementalStationTable cities = new IncrementalStationTable(INITIAL_CAPACITY);
+                long reported = cities.memory();
+                this.collector.grow(reported);
+                int lines = 0;
+
+                while ((line = r.readLineView()) != null)
+                {
+                    cities.update(line.bytes, line.start, line.cityLength(), line.cityHash, 
+                            parseInteger(line.bytes, line.semicolon + 1, line.end));
+
+                    if ((++lines & CHECK_MASK) == 0)
+                    {
+                        final long memory = cities.memory();
+                        final boolean full = this.collector.grow(memory - reported);
+                        reported = memory;
+
+                        if (full)
+                        {
+                            this.collector.spiller.spill(cities);
+                            this.collector.release(reported);
+                            cities = new IncrementalStationTable(INITIAL_CAPACITY);
+                            reported = cities.memory();
+                            this.collector.grow(reported);
+                        }
+                    }
+                }
+
+                // hand it over, don't keep it around till all are done
+                final long memory = cities.memory();
+                this.collector.grow(memory - reported);
+                this.collector.add(cities, memory);
+            } 
+            catch (IOException e) 
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+    
+    private static final int DIGITOFFSET = 48;
+
+    /**
+     * Parses a double but ends up with an int, only because we know
+     * the format of the results -99.9 to 99.9
+     * 
+     * Best case, two branches
+     * Worst case, two branches
+     */
+    public static int parseInteger(final byte[] s, int offset, final int end)
+    {
+        int l = end - offset;
+        var p0 = s[end - 1];
+        var p2 = s[end - 3] * 10;
+        var value = p2 + p0 - (DIGITOFFSET * 10 + DIGITOFFSET);
+        
+        final byte firstChar = s[offset];
+        if (firstChar == '-')
+        {
+            if (l == 5)
+            {
+                // -99.9
+                var p3 = s[end - 4] * 100;
+                value = p3 + value - (DIGITOFFSET * 100);
+            }
+            else
+            {
+                // -9.9
+            }
+            return -value;
+        }
+        else
+        {
+            if (l == 4)
+            {
+                // 99.9
+                // we can use firstChar directly as we know its not '-'
+                var p3 = firstChar * 100;
+                value = p3 + value - (DIGITOFFSET * 100);
+            }
+            else
+            {
+                // 9.9
+            }
+            return value;
+        }
+    }
+    
+    public static void main(String[] args) throws NoSuchMethodException, SecurityException
+    {
+        Benchmark.run(BRC092_Spill.class, args);
+    }
+}
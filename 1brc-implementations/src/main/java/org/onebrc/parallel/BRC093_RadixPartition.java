@@ -0,0 +1,302 @@
+// JVM_OPTS: $HIGH_MEM
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.onebrc.parallel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.onebrc.Benchmark;
+import org.onebrc.ResultWriting;
+import org.onebrc.util.ChunkSplitter;
+import org.onebrc.util.ChunkSplitter.Chunk;
+import org.onebrc.util.IncrementalStationTable;
+import org.onebrc.util.PositionableByteReader;
+import org.onebrc.util.PositionableByteReader.LineView;
+import org.onebrc.util.ResultWriter;
+import org.onebrc.util.TextResultWriter;
+
+/**
+ * With a million stations, every thread has its own table of a million stations. That is
+ * N times the memory and every lookup is a cache miss, because no table fits into any cache.
+ *
+ * We now partition by hash instead. The file is processed in rounds of one chunk per thread.
+ * First, every thread parses its chunk and scatters hash, temperature and name into one
+ * buffer per partition, picked by the top bits of the hash. Second, every partition is
+ * aggregated by exactly one thread from the buffers of all threads into its own table.
+ * A partition only holds 1/64 of the stations, so its table stays in the cache, and a
+ * station lives in exactly one table, so there is nothing to merge at the end.
+ *
+ * The scattered tuples are laid out as int hash, short temperature, short name length and
+ * the name. The buffers are reused round after round, only the last chunks of a round
+ * cost us, the threads wait for the slowest one twice per round.
+ *
+ * For the 413 stations of the normal data, that is just extra work, this is for the
+ * high cardinality data.
+ *
+ * The output skips the TreeMap, the names of all partitions are sorted as bytes with the
+ * NameSort and streamed into a ResultWriter, so it supports --format too.
+ *
+ * Difference to BRC091_IncrementalRehash: Scatter into hash partitions, one table per
+ * partition instead of one per thread, no merge. Chunks are 8 MB or -cs.
+ *
+ * @author René Schwietzke
+ */
+public class BRC093_RadixPartition extends Benchmark implements ResultWriting
+{
+    private static final int PARTITION_BITS = 6;
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // hash, temperature, length
+    private static final int TUPLE_HEADER = 8;
+
+    /**
+     * The top bits of the spread hash, the tables use the low bits, so a partition
+     * still spreads nicely over its table
+     */
+    private static int partition(final int hash)
+    {
+        return (hash * 0x9E3779B9) >>> (32 - PARTITION_BITS);
+    }
+
+    @Override
+    public boolean honorsChunkSize()
+    {
+        return true;
+    }
+
+    @Override
+    public String run(final String filePath) throws IOException
+    {
+        final var out = new ByteArrayOutputStream();
+        try (var writer = new TextResultWriter(Channels.newChannel(out)))
+        {
+            write(filePath, writer);
+        }
+
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(final String filePath, final ResultWriter writer) throws IOException
+    {
+        final List<Chunk> chunks;
+        try (var channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            chunks = ChunkSplitter.splitBySize(channel, this.getChunkSize() > 0 ? this.getChunkSize() : CHUNK_SIZE);
+        }
+
+        final int threads = this.getThreadCount();
+        final Scatter[] scatters = new Scatter[threads];
+        for (int t = 0; t < threads; t++)
+        {
+            scatters[t] = new Scatter();
+        }
+        final IncrementalStationTable[] tables = new IncrementalStationTable[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++)
+        {
+            tables[p] = new IncrementalStationTable(INITIAL_CAPACITY);
+        }
+
+        try (var executor = new ForkJoinPool(threads))
+        {
+            for (int from = 0; from < chunks.size(); from += threads)
+            {
+                // scatter, one chunk per thread
+                final List<Callable<Void>> scatterTasks = new ArrayList<>(threads);
+                final int used = Math.min(threads, chunks.size() - from);
+                for (int t = 0; t < used; t++)
+                {
+                    final Scatter scatter = scatters[t];
+                    final Chunk chunk = chunks.get(from + t);
+                    scatterTasks.add(() -> 
+                    {
+                        scatter.scatter(filePath, chunk);
+                        return null;
+                    });
+                }
+                complete(executor.invokeAll(scatterTasks));
+
+                // aggregate, one thread per partition
+                final List<Callable<Void>> gatherTasks = new ArrayList<>(PARTITIONS);
+                for (int p = 0; p < PARTITIONS; p++)
+                {
+                    final int partition = p;
+                    gatherTasks.add(() -> 
+                    {
+                        for (int t = 0; t < used; t++)
+                        {
+                            scatters[t].gather(partition, tables[partition]);
+                        }
+                        return null;
+                    });
+                }
+                complete(executor.invokeAll(gatherTasks));
+            }
+
+            // the partitions are disjoint, we just sort them together
+            IncrementalStationTable.forEachOrdered(writer, tables);
+        }
+    }
+
+    private static void complete(final List<Future<Void>> futures)
+    {
+        try
+        {
+            for (var f : futures)
+            {
+                f.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        } 
+        catch (ExecutionException e) 
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The partition buffers of a thread, reused for every round
+     */
+    private static class Scatter
+    {
+        private final byte[][] data = new byte[PARTITIONS][64 * 1024];
+        private final int[] size = new int[PARTITIONS];
+
+        public void scatter(final String filePath, final Chunk chunk) throws IOException
+        {
+            Arrays.fill(this.size, 0);
+
+            try (var r = new PositionableByteReader(filePath, chunk, false))
+            {
+                LineView line;
+                while ((line = r.readLineView()) != null)
+                {
+                    final int hash = line.cityHash;
+                    final int length = line.cityLength();
+                    final int temperature = parseInteger(line.bytes, line.semicolon + 1, line.end);
+
+                    final int p = partition(hash);
+                    final int pos = this.size[p];
+                    byte[] d = this.data[p];
+                    if (pos + TUPLE_HEADER + length > d.length)
+                    {
+                        d = this.data[p] = Arrays.copyOf(d, Math.max(d.length << 1, pos + TUPLE_HEADER + length));
+                    }
+
+                    d[pos] = (byte) (hash >>> 24);
+                    d[pos + 1] = (byte) (hash >>> 16);
+                    d[pos + 2] = (byte) (hash >>> 8);
+                    d[pos + 3] = (byte) hash;
+                    d[pos + 4] = (byte) (temperature >>> 8);
+                    d[pos + 5] = (byte) temperature;
+                    d[pos + 6] = (byte) (length >>> 8);
+                    d[pos + 7] = (byte) length;
+                    System.arraycopy(line.bytes, line.start, d, pos + TUPLE_HEADER, length);
+
+                    this.size[p] = pos + TUPLE_HEADER + length;
+                }
+            }
+        }
+
+        public void gather(final int p, final IncrementalStationTable table)
+        {
+            final byte[] d = this.data[p];
+            final int end = this.size[p];
+            int pos = 0;
+            while (pos < end)
+            {
+                final int hash = (d[pos] << 24) | ((d[pos + 1] & 0xFF) << 16) | ((d[pos + 2] & 0xFF) << 8) | (d[pos + 3] & 0xFF);
+                final int temperature = (short) (((d[pos + 4] & 0xFF) << 8) | (d[pos + 5] & 0xFF));
+                final int length = ((d[pos + 6] & 0xFF) << 8) | (d[pos + 7] & 0xFF);
+
+                table.update(d, pos + TUPLE_HEADER, length, hash, temperature);
+                pos += TUPLE_HEADER + length;
+            }
+        }
+    }
+    
+    private static final int DIGITOFFSET = 48;
+
+    /**
+     * Parses a double but ends up with an int, only because we know
+     * the format of the results -99.9 to 99.9
+     * 
+     * Best case, two branches
+     * Worst case, two branches
+     */
+    public static int parseInteger(final byte[] s, int offset, final int end)
+    {
+        int l = end - offset;
+        var p0 = s[end - 1];
+        var p2 = s[end - 3] * 10;
+        var value = p2 + p0 - (DIGITOFFSET * 10 + DIGITOFFSET);
+        
+        final byte firstChar = s[offset];
+        if (firstChar == '-')
+        {
+            if (l == 5)
+            {
+                // -99.9
+                var p3 = s[end - 4] * 100;
+                value = p3 + value - (DIGITOFFSET * 100);
+            }
+            else
+            {
+                // -9.9
+            }
+            return -value;
+        }
+        else
+        {
+            if (l == 4)
+            {
+                // 99.9
+                // we can use firstChar directly as we know its not '-'
+                var p3 = firstChar * 100;
+                value = p3 + value - (DIGITOFFSET * 100);
+            }
+            else
+            {
+                // 9.9
+            }
+            return value;
+        }
+    }
+    
+    public static void main(String[] args) throws NoSuchMethodException, SecurityException
+    {
+        Benchmark.run(BRC093_RadixPartition.class, args);
+    }
+}
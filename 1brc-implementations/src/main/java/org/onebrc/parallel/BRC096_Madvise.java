@@ -0,0 +1,178 @@
+// JVM_OPTS: $HIGH_MEM --enable-native-access=ALL-UNNAMED
+// exec NAME="channel"
+// exec NAME="native"; JVM_OPTS="$JVM_OPTS -Donebrc.mmap=native"
+// exec NAME="populate"; JVM_OPTS="$JVM_OPTS -Donebrc.mmap=native -Donebrc.populate=true"
+// exec NAME="sequential"; JVM_OPTS="$JVM_OPTS -Donebrc.mmap=native -Donebrc.madvise=sequential,willneed"
+// exec NAME="hugepage"; JVM_OPTS="$JVM_OPTS -Donebrc.mmap=native -Donebrc.madvise=sequential,willneed,hugepage"
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.onebrc.parallel;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.onebrc.Benchmark;
+import org.onebrc.util.ChunkSplitter;
+import org.onebrc.util.ChunkSplitter.Chunk;
+import org.onebrc.util.IncrementalStationTable;
+import org.onebrc.util.MappedFile;
+import org.onebrc.util.MappedFile.Options;
+
+/**
+ * Reads straight from a mapping of the whole file, so we can see what the kernel does with
+ * the page faults. How we map is up to {@link MappedFile} and its system properties,
+ * FileChannel.map, our own mmap with or without MAP_POPULATE, and madvise per chunk on
+ * top. The exec lines above run all of them, compare the PageFaults and MinorFaults
+ * columns benchmark.sh takes from perf stat.
+ *
+ * The parsing is kept plain on purpose, the mapping is what we measure. The name is
+ * copied into a small array while we hash it, the table wants an array.
+ *
+ * Difference to BRC091_IncrementalRehash: No reader, the mapping is read directly, the
+ * way of mapping can be switched.
+ *
+ * @author René Schwietzke
+ */
+public class BRC096_Madvise extends Benchmark
+{
+    private static final int INITIAL_CAPACITY = 4096;
+    // longer than any name
+    private static final int MAX_NAME_LENGTH = 1024;
+
+    @Override
+    public boolean honorsChunkSize()
+    {
+        return true;
+    }
+
+    @Override
+    public String run(final String filePath) throws IOException
+    {
+        final Options options = Options.fromSystemProperties();
+
+        try (var arena = Arena.ofShared();
+             var executor = new ForkJoinPool(this.getThreadCount()))
+        {
+            final MemorySegment segment = MappedFile.map(Path.of(filePath), arena, options);
+
+            // a given chunk size wins, otherwise one chunk per thread
+            final List<Chunk> chunks = this.getChunkSize() > 0
+                    ? ChunkSplitter.splitBySize(segment, this.getChunkSize())
+                    : ChunkSplitter.split(segment, this.getThreadCount());
+
+            final List<Mapper> tasks = chunks.stream().map(c -> new Mapper(segment, c, options)).toList();
+            tasks.forEach(t -> executor.execute(t));
+
+            // reduce result
+            final IncrementalStationTable result = new IncrementalStationTable(INITIAL_CAPACITY);
+            boolean advised = true;
+            for (var t : tasks)
+            {
+                result.addAll(t.get());
+                advised &= t.advised;
+            }
+
+            if (!advised)
+            {
+                System.err.println("The kernel did not take all of " + options.advices());
+            }
+
+            return result.toTreeMap().toString();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Mapper extends RecursiveTask<IncrementalStationTable>
+    {
+        private final MemorySegment segment;
+        private final Chunk chunk;
+        private final Options options;
+
+        // set before the task completes, read after get()
+        boolean advised;
+
+        public Mapper(final MemorySegment segment, final Chunk chunk, final Options options)
+        {
+            this.segment = segment;
+            this.chunk = chunk;
+            this.options = options;
+        }
+
+        @Override
+        protected IncrementalStationTable compute()
+        {
+            this.advised = MappedFile.advise(this.segment, this.chunk.start(), this.chunk.length(), this.options.advices());
+
+            final MemorySegment s = this.segment;
+            final IncrementalStationTable table = new IncrementalStationTable(INITIAL_CAPACITY);
+            final byte[] name = new byte[MAX_NAME_LENGTH];
+
+            long pos = this.chunk.start();
+            final long end = this.chunk.end();
+            while (pos < end)
+            {
+                // name and hash
+                int length = 0;
+                int hash = 0;
+                byte b;
+                while ((b = s.get(ValueLayout.JAVA_BYTE, pos++)) != ';')
+                {
+                    hash = hash * 31 + b;
+                    name[length++] = b;
+                }
+
+                // temperature, the last line might not have a \n
+                int value = 0;
+                boolean negative = false;
+                while (pos < end && (b = s.get(ValueLayout.JAVA_BYTE, pos++)) != '\n')
+                {
+                    if (b == '-')
+                    {
+                        negative = true;
+                    }
+                    else if (b != '.')
+                    {
+                        value = value * 10 + b - '0';
+                    }
+                }
+
+                table.update(name, 0, length, hash, negative ? -value : value);
+            }
+
+            return table;
+        }
+    }
+
+    public static void main(String[] args) throws NoSuchMethodException, SecurityException
+    {
+        Benchmark.run(BRC096_Madvise.class, args);
+    }
+}
@@ -0,0 +1,271 @@
+// JVM_OPTS: $HIGH_MEM
+// exec NAME="1-cursor"; JVM_OPTS="$JVM_OPTS -Donebrc.cursors=1"
+// exec NAME="2-cursors"; JVM_OPTS="$JVM_OPTS -Donebrc.cursors=2"
+// exec NAME="3-cursors"; JVM_OPTS="$JVM_OPTS -Donebrc.cursors=3"
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.onebrc.parallel;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.onebrc.Benchmark;
+import org.onebrc.util.ChunkSplitter;
+import org.onebrc.util.ChunkSplitter.Chunk;
+import org.onebrc.util.IncrementalStationTable;
+import org.onebrc.util.MappedFile;
+import org.onebrc.util.MappedFile.Options;
+
+/**
+ * One line after the other is a chain, we only know where a line starts when we found
+ * the end of the one before. The core has nothing else to do while it waits for the
+ * semicolon search, the hash and the lookup.
+ *
+ * Here every thread splits its chunk into two or three parts and runs a cursor per part,
+ * all in the same loop. Each round parses one line per cursor, the lines don't depend on
+ * each other, so the out-of-order core can work on all of them at the same time. When the
+ * first cursor reaches its end, the others finish alone.
+ *
+ * The cursors share the table of the thread, they are in the same thread after all.
+ * -Donebrc.cursors=1 to 3, the exec lines above run all, compare the IPC.
+ *
+ * Difference to BRC096_Madvise: Several cursors per thread, the line parsing is the same,
+ * no madvise.
+ *
+ * @author René Schwietzke
+ */
+public class BRC097_MultiCursor extends Benchmark
+{
+    private static final int INITIAL_CAPACITY = 4096;
+    // longer than any name
+    private static final int MAX_NAME_LENGTH = 1024;
+
+    @Override
+    public boolean honorsChunkSize()
+    {
+        return true;
+    }
+
+    @Override
+    public String run(final String filePath) throws IOException
+    {
+        final Options options = Options.fromSystemProperties();
+        final int cursors = Integer.getInteger("onebrc.cursors", 3);
+        if (cursors < 1 || cursors > 3)
+        {
+            throw new IllegalArgumentException("Cursors must be 1 to 3, was " + cursors);
+        }
+
+        try (var arena = Arena.ofShared();
+             var executor = new ForkJoinPool(this.getThreadCount()))
+        {
+            final MemorySegment segment = MappedFile.map(Path.of(filePath), arena, options);
+
+            // a given chunk size wins, otherwise one chunk per thread
+            final List<Chunk> chunks = this.getChunkSize() > 0
+                    ? ChunkSplitter.splitBySize(segment, this.getChunkSize())
+                    : ChunkSplitter.split(segment, this.getThreadCount());
+
+            final List<Mapper> tasks = chunks.stream().map(c -> new Mapper(segment, c, cursors)).toList();
+            tasks.forEach(t -> executor.execute(t));
+
+            // reduce result
+            final IncrementalStationTable result = new IncrementalStationTable(INITIAL_CAPACITY);
+            for (var t : tasks)
+            {
+                result.addAll(t.get());
+            }
+
+            return result.toTreeMap().toString();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Mapper extends RecursiveTask<IncrementalStationTable>
+    {
+        private final MemorySegment segment;
+        private final Chunk chunk;
+        private final int cursors;
+
+        public Mapper(final MemorySegment segment, final Chunk chunk, final int cursors)
+        {
+            this.segment = segment;
+            this.chunk = chunk;
+            this.cursors = cursors;
+        }
+
+        @Override
+        protected IncrementalStationTable compute()
+        {
+            final MemorySegment s = this.segment;
+            final IncrementalStationTable table = new IncrementalStationTable(INITIAL_CAPACITY);
+
+            // the parts, each starts with a line
+            final long start = this.chunk.start();
+            final long end = this.chunk.end();
+            final long[] bounds = new long[this.cursors + 1];
+            bounds[0] = start;
+            for (int i = 1; i < this.cursors; i++)
+            {
+                final long pos = start + this.chunk.length() * i / this.cursors;
+                bounds[i] = Math.max(bounds[i - 1], Math.min(end, ChunkSplitter.nextLineStart(s, pos)));
+            }
+            bounds[this.cursors] = end;
+
+            switch (this.cursors)
+            {
+                case 1 -> one(s, bounds, table);
+                case 2 -> two(s, bounds, table);
+                default -> three(s, bounds, table);
+            }
+
+            return table;
+        }
+
+        private static void one(final MemorySegment s, final long[] bounds, final IncrementalStationTable table)
+        {
+            final byte[] name0 = new byte[MAX_NAME_LENGTH];
+
+            long p0 = bounds[0];
+            final long e0 = bounds[1];
+            while (p0 < e0)
+            {
+                p0 = line(s, p0, e0, table, name0);
+            }
+        }
+
+        private static void two(final MemorySegment s, final long[] bounds, final IncrementalStationTable table)
+        {
+            final byte[] name0 = new byte[MAX_NAME_LENGTH];
+            final byte[] name1 = new byte[MAX_NAME_LENGTH];
+
+            long p0 = bounds[0];
+            long p1 = bounds[1];
+            final long e0 = bounds[1];
+            final long e1 = bounds[2];
+
+            // independent lines, no cursor waits for the other
+            while (p0 < e0 && p1 < e1)
+            {
+                p0 = line(s, p0, e0, table, name0);
+                p1 = line(s, p1, e1, table, name1);
+            }
+
+            // the rest, the parts are never exactly the same
+            while (p0 < e0)
+            {
+                p0 = line(s, p0, e0, table, name0);
+            }
+            while (p1 < e1)
+            {
+                p1 = line(s, p1, e1, table, name1);
+            }
+        }
+
+        private static void three(final MemorySegment s, final long[] bounds, final IncrementalStationTable table)
+        {
+            final byte[] name0 = new byte[MAX_NAME_LENGTH];
+            final byte[] name1 = new byte[MAX_NAME_LENGTH];
+            final byte[] name2 = new byte[MAX_NAME_LENGTH];
+
+            long p0 = bounds[0];
+            long p1 = bounds[1];
+            long p2 = bounds[2];
+            final long e0 = bounds[1];
+            final long e1 = bounds[2];
+            final long e2 = bounds[3];
+
+            // independent lines, no cursor waits for the other
+            while (p0 < e0 && p1 < e1 && p2 < e2)
+            {
+                p0 = line(s, p0, e0, table, name0);
+                p1 = line(s, p1, e1, table, name1);
+                p2 = line(s, p2, e2, table, name2);
+            }
+
+            // the rest, the parts are never exactly the same
+            while (p0 < e0)
+            {
+                p0 = line(s, p0, e0, table, name0);
+            }
+            while (p1 < e1)
+            {
+                p1 = line(s, p1, e1, table, name1);
+            }
+            while (p2 < e2)
+            {
+                p2 = line(s, p2, e2, table, name2);
+            }
+        }
+
+        /**
+         * Parse the line at pos into the table, small enough to be inlined three times
+         *
+         * @return the start of the next line
+         */
+        private static long line(final MemorySegment s, long pos, final long end,
+                final IncrementalStationTable table, final byte[] name)
+        {
+            // name and hash
+            int length = 0;
+            int hash = 0;
+            byte b;
+            while ((b = s.get(ValueLayout.JAVA_BYTE, pos++)) != ';')
+            {
+                hash = hash * 31 + b;
+                name[length++] = b;
+            }
+
+            // temperature, the last line might not have a \n
+            int value = 0;
+            boolean negative = false;
+            while (pos < end && (b = s.get(ValueLayout.JAVA_BYTE, pos++)) != '\n')
+            {
+                if (b == '-')
+                {
+                    negative = true;
+                }
+                else if (b != '.')
+                {
+                    value = value * 10 + b - '0';
+                }
+            }
+
+            table.update(name, 0, length, hash, negative ? -value : value);
+            return pos;
+        }
+    }
+
+    public static void main(String[] args) throws NoSuchMethodException, SecurityException
+    {
+        Benchmark.run(BRC097_MultiCursor.class, args);
+    }
+}
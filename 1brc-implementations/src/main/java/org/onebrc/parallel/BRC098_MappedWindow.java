@@ -0,0 +1,321 @@
+// JVM_OPTS: $HIGH_MEM
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.onebrc.parallel;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.onebrc.Benchmark;
+import org.onebrc.util.ChunkSplitter;
+import org.onebrc.util.ChunkSplitter.Chunk;
+import org.onebrc.util.IncrementalStationTable;
+import org.onebrc.util.MappedFile;
+import org.onebrc.util.MappedFile.Options;
+import org.onebrc.util.MappedWindowedBuffer;
+
+/**
+ * Reads through the MappedWindowedBuffer, the window of a chunk slides over the one shared
+ * mapping. As long as the window holds more than a full line, we go with readUnsafe, only
+ * the lines at the end of a window take the checked read, which slides the window.
+ *
+ * The marks give us the name, mark1 at its start, mark2 on the semicolon. They are file
+ * positions here, so a window slide between them does not matter. The lookup compares the
+ * stations against the marked area in place, a name is only copied when it is new. Our own
+ * small table for that, the IncrementalStationTable wants the name in an array.
+ *
+ * Difference to BRC096_Madvise: Reads via the MappedWindowedBuffer instead of the segment,
+ * no madvise.
+ *
+ * @author René Schwietzke
+ */
+public class BRC098_MappedWindow extends Benchmark
+{
+    private static final int INITIAL_CAPACITY = 4096;
+    // 100 bytes name, semicolon, -99.9 and the newline fit
+    private static final int MAX_LINE_LENGTH = 128;
+    private static final int WINDOW_SIZE = 1024 * 1024;
+
+    @Override
+    public boolean honorsChunkSize()
+    {
+        return true;
+    }
+
+    @Override
+    public String run(final String filePath) throws IOException
+    {
+        try (var arena = Arena.ofShared();
+             var executor = new ForkJoinPool(this.getThreadCount()))
+        {
+            final MemorySegment segment = MappedFile.map(Path.of(filePath), arena, Options.DEFAULT);
+
+            // a given chunk size wins, otherwise one chunk per thread
+            final List<Chunk> chunks = this.getChunkSize() > 0
+                    ? ChunkSplitter.splitBySize(segment, this.getChunkSize())
+                    : ChunkSplitter.split(segment, this.getThreadCount());
+
+            final List<Mapper> tasks = chunks.stream().map(c -> new Mapper(segment, c)).toList();
+            tasks.forEach(t -> executor.execute(t));
+
+            // reduce result
+            final IncrementalStationTable result = new IncrementalStationTable(INITIAL_CAPACITY);
+            for (var t : tasks)
+            {
+                result.addAll(t.get());
+            }
+
+            return result.toTreeMap().toString();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Holds our temperature data, the name is only copied once, when the station is new
+     */
+    static class City
+    {
+        final byte[] name;
+        final int hash;
+
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long total;
+        int count;
+
+        City(final byte[] name, final int hash)
+        {
+            this.name = name;
+            this.hash = hash;
+        }
+
+        void add(final int value)
+        {
+            this.min = Math.min(this.min, value);
+            this.max = Math.max(this.max, value);
+            this.total += value;
+            this.count++;
+        }
+    }
+
+    /**
+     * Open addressing over the marked area of the buffer, the lookup compares in place
+     */
+    static class Cities
+    {
+        private City[] slots = new City[INITIAL_CAPACITY];
+        private int size;
+
+        /**
+         * The station of the marked name, mark1 on its start, mark2 on the semicolon. A new
+         * one is inserted, only then the name is copied.
+         */
+        City get(final MappedWindowedBuffer buffer, final int hash)
+        {
+            final int mask = this.slots.length - 1;
+            int i = spread(hash) & mask;
+            while (true)
+            {
+                final City c = this.slots[i];
+                if (c == null)
+                {
+                    // copyMarkedArea includes mark2, so move it onto the last byte of the name
+                    buffer.mark2(-2);
+                    final City city = new City(buffer.copyMarkedArea(), hash);
+                    this.slots[i] = city;
+                    if (++this.size > this.slots.length >> 1)
+                    {
+                        resize();
+                    }
+                    return city;
+                }
+                if (c.hash == hash && buffer.matchMarkedArea(c.name))
+                {
+                    return c;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        private static int spread(final int hash)
+        {
+            return hash ^ (hash >>> 16);
+        }
+
+        private void resize()
+        {
+            final City[] old = this.slots;
+            this.slots = new City[old.length << 1];
+            final int mask = this.slots.length - 1;
+            for (var c : old)
+            {
+                if (c != null)
+                {
+                    int i = spread(c.hash) & mask;
+                    while (this.slots[i] != null)
+                    {
+                        i = (i + 1) & mask;
+                    }
+                    this.slots[i] = c;
+                }
+            }
+        }
+
+        IncrementalStationTable toTable()
+        {
+            final IncrementalStationTable table = new IncrementalStationTable(INITIAL_CAPACITY);
+            for (var c : this.slots)
+            {
+                if (c != null)
+                {
+                    table.add(c.name, 0, c.name.length, c.hash, c.min, c.max, c.total, c.count);
+                }
+            }
+            return table;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Mapper extends RecursiveTask<IncrementalStationTable>
+    {
+        private final MemorySegment segment;
+        private final Chunk chunk;
+
+        public Mapper(final MemorySegment segment, final Chunk chunk)
+        {
+            this.segment = segment;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected IncrementalStationTable compute()
+        {
+            final Cities cities = new Cities();
+            if (this.chunk.length() == 0)
+            {
+                return cities.toTable();
+            }
+
+            // not ours, close won't unmap
+            final var buffer = new MappedWindowedBuffer(this.segment, this.chunk.start(), this.chunk.end() - 1, WINDOW_SIZE);
+            try
+            {
+                while (buffer.remainingBytesToRead() > 0)
+                {
+                    if (buffer.remainingBufferedBytes() >= MAX_LINE_LENGTH)
+                    {
+                        fastLine(buffer, cities);
+                    }
+                    else
+                    {
+                        slowLine(buffer, cities);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+
+            return cities.toTable();
+        }
+
+        /**
+         * The full line is in the window, no checks
+         */
+        private static void fastLine(final MappedWindowedBuffer buffer, final Cities cities)
+        {
+            buffer.mark1();
+            int hash = 0;
+            byte b;
+            while ((b = buffer.readUnsafe()) != ';')
+            {
+                hash = hash * 31 + b;
+            }
+            buffer.mark2(-1);
+            final City city = cities.get(buffer, hash);
+            buffer.resetMark();
+
+            int value = 0;
+            boolean negative = false;
+            while ((b = buffer.readUnsafe()) != '\n')
+            {
+                if (b == '-')
+                {
+                    negative = true;
+                }
+                else if (b != '.')
+                {
+                    value = value * 10 + b - '0';
+                }
+            }
+
+            city.add(negative ? -value : value);
+        }
+
+        /**
+         * The line might cross the window or the end of the chunk, read slides the
+         * window, the last line might not have a \n
+         */
+        private static void slowLine(final MappedWindowedBuffer buffer, final Cities cities) throws IOException
+        {
+            buffer.mark1();
+            int hash = 0;
+            byte b;
+            while ((b = buffer.read()) != ';')
+            {
+                hash = hash * 31 + b;
+            }
+            buffer.mark2(-1);
+            final City city = cities.get(buffer, hash);
+            buffer.resetMark();
+
+            int value = 0;
+            boolean negative = false;
+            while (buffer.remainingBytesToRead() > 0 && (b = buffer.read()) != '\n')
+            {
+                if (b == '-')
+                {
+                    negative = true;
+                }
+                else if (b != '.')
+                {
+                    value = value * 10 + b - '0';
+                }
+            }
+
+            city.add(negative ? -value : value);
+        }
+    }
+
+    public static void main(String[] args) throws NoSuchMethodException, SecurityException
+    {
+        Benchmark.run(BRC098_MappedWindow.class, args);
+    }
+}
@@ -0,0 +1,203 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * A persistent cache of per station results for files that only grow by appends. Next to the
+ * stations in our binary result format, we keep how far we have processed the file, its
+ * modification time and file key, and digests of the first block and of the block right
+ * before the processed end. When we see the file again and all that still matches, the
+ * cached part is unchanged and only the appended bytes need processing.
+ *
+ * The processed end is always a line end, a line that is still being written is not part
+ * of the cache.
+ *
+ * The modification time is kept for us humans only, an append changes it anyway.
+ *
+ * Files go into the given directory, named after a hash of the absolute file path.
+ */
+public class AppendCache
+{
+    // what we digest at the start and the end of the processed part
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final Path directory;
+
+    /**
+     * What we had before
+     *
+     * @param processed where we stopped, a line end
+     * @param stations the stations in binary result format
+     */
+    public static record State(long processed, ByteBuffer stations)
+    {
+    }
+
+    public AppendCache(final Path directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * The default place, -Donebrc.cache=dir or 1brc-cache in the temp directory. Not in the
+     * home directory, tests and benchmark runs would leave their files behind there.
+     */
+    public static AppendCache defaultCache()
+    {
+        final String dir = System.getProperty("onebrc.cache");
+        return new AppendCache(dir != null ? Path.of(dir) : Path.of(System.getProperty("java.io.tmpdir"), "1brc-cache"));
+    }
+
+    /**
+     * The cached state, if the file still starts with what we have processed before
+     *
+     * @param file the measurement file
+     * @return the state or empty, when there is none or the file has changed otherwise
+     * @throws IOException
+     */
+    public Optional<State> load(final Path file) throws IOException
+    {
+        final Path meta = metaFile(file);
+        final Path data = dataFile(file);
+        if (!Files.exists(meta) || !Files.exists(data))
+        {
+            return Optional.empty();
+        }
+
+        final Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(meta, StandardCharsets.UTF_8))
+        {
+            p.load(r);
+        }
+
+        final long processed = Long.parseLong(p.getProperty("processed", "-1"));
+        final var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+        // same file, not shorter, same content where we have been
+        if (processed < 0
+                || attributes.size() < processed
+                || !String.valueOf(attributes.fileKey()).equals(p.getProperty("fileKey"))
+                || !digests(file, processed).equals(p.getProperty("digest")))
+        {
+            return Optional.empty();
+        }
+
+        return Optional.of(new State(processed, ByteBuffer.wrap(Files.readAllBytes(data)).asReadOnlyBuffer()));
+    }
+
+    /**
+     * Store a new state, the data first and the meta data last, so a broken write
+     * never leaves a valid looking entry behind
+     *
+     * @param file the measurement file
+     * @param processed the end of the processed part, has to be a line end
+     * @param stations the stations in binary result format
+     * @throws IOException
+     */
+    public void store(final Path file, final long processed, final ByteBuffer stations) throws IOException
+    {
+        Files.createDirectories(this.directory);
+
+        final var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final Properties p = new Properties();
+        p.setProperty("file", file.toAbsolutePath().toString());
+        p.setProperty("processed", String.valueOf(processed));
+        p.setProperty("modified", String.valueOf(attributes.lastModifiedTime().toMillis()));
+        p.setProperty("fileKey", String.valueOf(attributes.fileKey()));
+        p.setProperty("digest", digests(file, processed));
+
+        final Path data = dataFile(file);
+        final Path dataTmp = data.resolveSibling(data.getFileName() + ".tmp");
+        try (var c = FileChannel.open(dataTmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            final ByteBuffer b = stations.duplicate();
+            while (b.hasRemaining())
+            {
+                c.write(b);
+            }
+        }
+
+        final Path meta = metaFile(file);
+        final Path metaTmp = meta.resolveSibling(meta.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(metaTmp, StandardCharsets.UTF_8))
+        {
+            p.store(w, "1BRC append cache");
+        }
+
+        Files.deleteIfExists(meta);
+        Files.move(dataTmp, data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(metaTmp, meta, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Digest of the first block and of the block before the end, the head catches a
+     * replaced file, the tail a rewrite of the end
+     */
+    private static String digests(final Path file, final long end) throws IOException
+    {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+
+            digest(channel, 0, Math.min(end, BLOCK_SIZE), buffer, digest);
+            digest(channel, Math.max(0, end - BLOCK_SIZE), end, buffer, digest);
+
+            return HexFormat.of().formatHex(digest.digest());
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void digest(final FileChannel channel, final long from, final long to,
+            final ByteBuffer buffer, final MessageDigest digest) throws IOException
+    {
+        buffer.clear().limit((int) (to - from));
+        while (buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) > 0)
+        {
+        }
+        buffer.flip();
+        digest.update(buffer);
+    }
+
+    private Path metaFile(final Path file)
+    {
+        return this.directory.resolve(key(file) + ".properties");
+    }
+
+    private Path dataFile(final Path file)
+    {
+        return this.directory.resolve(key(file) + ".bin");
+    }
+
+    private static String key(final Path file)
+    {
+        try
+        {
+            final byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(file.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.onebrc.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the format of the {@link BinaryResultWriter} station by station from a channel,
+ * for when the data is too large to hold or when several inputs are merged. Several results
+ * written one after the other into the same file are read as one.
+ *
+ * The fields are only valid till the next call, like the LineView of our readers.
+ */
+public class BinaryResultReader implements Closeable
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    private boolean inResult;
+
+    public byte[] name = new byte[128];
+    public int length;
+    public int min;
+    public int max;
+    public long total;
+    public long count;
+
+    public BinaryResultReader(final ReadableByteChannel channel)
+    {
+        this.channel = channel;
+    }
+
+    /**
+     * Read the next station
+     *
+     * @return false when the channel is done
+     * @throws IOException when the data is not ours or ends in the middle of a result
+     */
+    public boolean next() throws IOException
+    {
+        while (true)
+        {
+            if (!this.inResult)
+            {
+                if (!fill(8))
+                {
+                    if (this.buffer.hasRemaining())
+                    {
+                        throw new EOFException("Incomplete binary result");
+                    }
+                    return false;
+                }
+                if (this.buffer.getInt() != BinaryResultWriter.MAGIC || this.buffer.getInt() != BinaryResultWriter.VERSION)
+                {
+                    throw new IOException("Not a binary result of version " + BinaryResultWriter.VERSION);
+                }
+                this.inResult = true;
+            }
+
+            require(4);
+            final int length = this.buffer.getInt();
+            if (length == BinaryResultWriter.END)
+            {
+                this.inResult = false;
+                continue;
+            }
+
+            require(length + 24);
+            if (length > this.name.length)
+            {
+                this.name = new byte[length];
+            }
+            this.buffer.get(this.name, 0, length);
+            this.length = length;
+            this.min = this.buffer.getInt();
+            this.max = this.buffer.getInt();
+            this.total = this.buffer.getLong();
+            this.count = this.buffer.getLong();
+
+            return true;
+        }
+    }
+
+    private void require(final int bytes) throws IOException
+    {
+        if (!fill(bytes))
+        {
+            throw new EOFException("Incomplete binary result");
+        }
+    }
+
+    /**
+     * Make sure we have that many bytes buffered, a long name might need a larger buffer
+     *
+     * @return false when the channel ended before
+     */
+    private boolean fill(final int bytes) throws IOException
+    {
+        if (this.buffer.remaining() >= bytes)
+        {
+            return true;
+        }
+
+        if (this.buffer.capacity() < bytes)
+        {
+            this.buffer = ByteBuffer.allocate(bytes).put(this.buffer);
+        }
+        else
+        {
+            this.buffer.compact();
+        }
+
+        while (this.buffer.position() < bytes)
+        {
+            if (this.channel.read(this.buffer) < 0)
+            {
+                break;
+            }
+        }
+        this.buffer.flip();
+
+        return this.buffer.remaining() >= bytes;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.channel.close();
+    }
+}
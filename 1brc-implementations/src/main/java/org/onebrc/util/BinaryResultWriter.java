@@ -0,0 +1,104 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.BiPredicate;
+
+/**
+ * A compact big endian format that needs no parsing of numbers at all:
+ *
+ * <pre>
+ * header:  int magic '1BRC', int version 1
+ * station: int name length, UTF-8 name, int min, int max, long total, long count
+ * end:     int -1
+ * </pre>
+ *
+ * Temperatures are the raw tenth-degree integers, so the reader can compute the mean as it likes.
+ */
+public class BinaryResultWriter extends ResultWriter
+{
+    public static final int MAGIC = ('1' << 24) | ('B' << 16) | ('R' << 8) | 'C';
+    public static final int VERSION = 1;
+    public static final int END = -1;
+
+    private boolean first = true;
+
+    public BinaryResultWriter(final WritableByteChannel channel)
+    {
+        super(channel);
+    }
+
+    private void header() throws IOException
+    {
+        if (this.first)
+        {
+            ensure(8);
+            this.buffer.putInt(MAGIC).putInt(VERSION);
+            this.first = false;
+        }
+    }
+
+    @Override
+    public void station(final byte[] name, final int offset, final int length,
+            final int min, final int max, final long total, final long count) throws IOException
+    {
+        header();
+
+        ensure(4);
+        this.buffer.putInt(length);
+        put(name, offset, length);
+
+        ensure(24);
+        this.buffer.putInt(min).putInt(max).putLong(total).putLong(count);
+    }
+
+    @Override
+    protected void end() throws IOException
+    {
+        header();
+
+        ensure(4);
+        this.buffer.putInt(END);
+    }
+
+    /**
+     * Reads our binary format and hands every station the filter accepts to another writer
+     * or sink, that way we can keep one binary result around and serve all formats from it.
+     *
+     * @param data the binary result
+     * @param sink where the stations go
+     * @param filter gets the array and the length of the name, the name starts at 0
+     * @throws IOException when the data is not ours or the writer fails
+     */
+    public static void replay(final ByteBuffer data, final StationSink sink, final BiPredicate<byte[], Integer> filter)
+            throws IOException
+    {
+        final ByteBuffer in = data.duplicate();
+        if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION)
+        {
+            throw new IOException("Not a binary result of version " + VERSION);
+        }
+
+        byte[] name = new byte[128];
+        int length;
+        while ((length = in.getInt()) != END)
+        {
+            if (length > name.length)
+            {
+                name = new byte[length];
+            }
+            in.get(name, 0, length);
+
+            final int min = in.getInt();
+            final int max = in.getInt();
+            final long total = in.getLong();
+            final long count = in.getLong();
+
+            if (filter.test(name, length))
+            {
+                sink.station(name, 0, length, min, max, total, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * One way to split a file into chunks for all. Every chunk is an exact [start, end) range
+ * that starts at the beginning of a line and ends right after a \n (or at the end of the file),
+ * so no reader has to skip or complete anything and no line is lost or seen twice.
+ *
+ * We only peek a few bytes at each candidate point, so splitting costs O(chunks) and not
+ * O(file). There are no empty chunks, tiny files might get fewer chunks than asked for.
+ */
+public class ChunkSplitter
+{
+    // longer than any line we expect, we read more if needed
+    private static final int PEEK_SIZE = 128;
+
+    /**
+     * A line aligned range of the file
+     */
+    public static record Chunk(long start, long end)
+    {
+        public long length()
+        {
+            return end - start;
+        }
+    }
+
+    /**
+     * Split into about chunkCount chunks of the same size
+     */
+    public static List<Chunk> split(final FileChannel channel, final int chunkCount) throws IOException
+    {
+        try
+        {
+            return split(0, channel.size(), chunkCount, unchecked(channel));
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Split the range [from, to) into about chunkCount chunks of the same size, from
+     * has to be a line start
+     */
+    public static List<Chunk> split(final FileChannel channel, final long from, final long to, final int chunkCount) throws IOException
+    {
+        try
+        {
+            return split(from, Math.min(to, channel.size()), chunkCount, unchecked(channel));
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Split into chunks of about chunkSize bytes
+     */
+    public static List<Chunk> splitBySize(final FileChannel channel, final long chunkSize) throws IOException
+    {
+        try
+        {
+            return splitBySize(channel.size(), chunkSize, unchecked(channel));
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Split into about chunkCount chunks of the same size
+     */
+    public static List<Chunk> split(final MemorySegment segment, final int chunkCount)
+    {
+        return split(0, segment.byteSize(), chunkCount, pos -> nextLineStart(segment, pos));
+    }
+
+    /**
+     * Split into chunks of about chunkSize bytes
+     */
+    public static List<Chunk> splitBySize(final MemorySegment segment, final long chunkSize)
+    {
+        return splitBySize(segment.byteSize(), chunkSize, pos -> nextLineStart(segment, pos));
+    }
+
+    /**
+     * The lambdas cannot throw, so we tunnel the IOException
+     */
+    private static LongUnaryOperator unchecked(final FileChannel channel)
+    {
+        return pos -> 
+        {
+            try
+            {
+                return nextLineStart(channel, pos);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /**
+     * The candidates are fixed, so aligning one does not shift the others 
+     */
+    private static List<Chunk> split(final long from, final long to, final int chunkCount, final LongUnaryOperator lineStart)
+    {
+        if (chunkCount <= 0)
+        {
+            throw new IllegalArgumentException("Chunk count must be > 0");
+        }
+
+        final List<Chunk> chunks = new ArrayList<>(chunkCount);
+        final long size = to - from;
+
+        long start = from;
+        for (int i = 1; i <= chunkCount && start < to; i++)
+        {
+            // the last one takes the rest
+            final long end = i == chunkCount ? to : Math.min(to, lineStart.applyAsLong(from + size / chunkCount * i));
+
+            // a long line might have eaten the whole candidate already
+            if (end > start)
+            {
+                chunks.add(new Chunk(start, end));
+                start = end;
+            }
+        }
+
+        return chunks;
+    }
+
+    /**
+     * The last chunk takes the rest, if it is smaller than a chunk
+     */
+    private static List<Chunk> splitBySize(final long size, final long chunkSize, final LongUnaryOperator lineStart)
+    {
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Chunk size must be > 0");
+        }
+
+        final List<Chunk> chunks = new ArrayList<>((int) Math.min(1024, size / chunkSize + 1));
+
+        long start = 0;
+        while (start < size)
+        {
+            // a rest smaller than a chunk is added to the last chunk
+            final long candidate = size - start < 2 * chunkSize ? size : start + chunkSize;
+            final long end = lineStart.applyAsLong(candidate);
+
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+
+        return chunks;
+    }
+
+    /**
+     * The first line start at or after pos. That is pos itself, when the byte
+     * before it is a \n.
+     *
+     * @return the line start or the size of the file, if there is none
+     */
+    public static long nextLineStart(final FileChannel channel, final long pos) throws IOException
+    {
+        final long size = channel.size();
+        if (pos <= 0 || pos >= size)
+        {
+            return Math.max(0, Math.min(pos, size));
+        }
+
+        final ByteBuffer peek = ByteBuffer.allocate(PEEK_SIZE);
+
+        // we start one early to see if we are at a line start already
+        long p = pos - 1;
+        while (p < size)
+        {
+            peek.clear();
+            final int read = channel.read(peek, p);
+            if (read <= 0)
+            {
+                break;
+            }
+
+            for (int i = 0; i < read; i++)
+            {
+                if (peek.get(i) == '\n')
+                {
+                    return p + i + 1;
+                }
+            }
+            p += read;
+        }
+
+        return size;
+    }
+
+    /**
+     * The end of the last complete line before pos, that is right after its \n. Everything
+     * from there to pos is a line still in the making, when the file grows.
+     *
+     * @return the line end or 0, if there is no complete line
+     */
+    public static long lastLineEnd(final FileChannel channel, final long pos) throws IOException
+    {
+        final ByteBuffer peek = ByteBuffer.allocate(PEEK_SIZE);
+
+        long end = Math.min(pos, channel.size());
+        while (end > 0)
+        {
+            final long start = Math.max(0, end - PEEK_SIZE);
+            peek.clear().limit((int) (end - start));
+            while (peek.hasRemaining() && channel.read(peek, start + peek.position()) > 0)
+            {
+            }
+
+            for (int i = peek.position() - 1; i >= 0; i--)
+            {
+                if (peek.get(i) == '\n')
+                {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+
+        return 0;
+    }
+
+    /**
+     * The first line start at or after pos. That is pos itself, when the byte
+     * before it is a \n.
+     *
+     * @return the line start or the size of the segment, if there is none
+     */
+    public static long nextLineStart(final MemorySegment segment, final long pos)
+    {
+        final long size = segment.byteSize();
+        if (pos <= 0 || pos >= size)
+        {
+            return Math.max(0, Math.min(pos, size));
+        }
+
+        for (long p = pos - 1; p < size; p++)
+        {
+            if (segment.get(ValueLayout.JAVA_BYTE, p) == '\n')
+            {
+                return p + 1;
+            }
+        }
+
+        return size;
+    }
+}
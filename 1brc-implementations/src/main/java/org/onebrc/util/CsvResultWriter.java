@@ -0,0 +1,84 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * RFC 4180 style CSV with a header line, names are quoted when they contain a
+ * comma, a quote or a line break:
+ * station,min,mean,max,count
+ */
+public class CsvResultWriter extends ResultWriter
+{
+    private static final byte[] HEADER = "station,min,mean,max,count\n".getBytes();
+
+    private boolean first = true;
+
+    public CsvResultWriter(final WritableByteChannel channel)
+    {
+        super(channel);
+    }
+
+    @Override
+    public void station(final byte[] name, final int offset, final int length,
+            final int min, final int max, final long total, final long count) throws IOException
+    {
+        if (this.first)
+        {
+            put(HEADER, 0, HEADER.length);
+            this.first = false;
+        }
+
+        putName(name, offset, length);
+        put((byte) ',');
+        putTenths(min);
+        put((byte) ',');
+        putMean(total, count);
+        put((byte) ',');
+        putTenths(max);
+        put((byte) ',');
+        putCount(count);
+        put((byte) '\n');
+    }
+
+    private void putName(final byte[] name, final int offset, final int length) throws IOException
+    {
+        final int end = offset + length;
+
+        boolean quote = false;
+        for (int i = offset; i < end && !quote; i++)
+        {
+            final byte b = name[i];
+            quote = b == ',' || b == '"' || b == '\n' || b == '\r';
+        }
+
+        if (!quote)
+        {
+            put(name, offset, length);
+            return;
+        }
+
+        // quotes are doubled
+        put((byte) '"');
+        int start = offset;
+        for (int i = offset; i < end; i++)
+        {
+            if (name[i] == '"')
+            {
+                put(name, start, i - start + 1);
+                start = i;
+            }
+        }
+        put(name, start, end - start);
+        put((byte) '"');
+    }
+
+    @Override
+    protected void end() throws IOException
+    {
+        if (this.first)
+        {
+            put(HEADER, 0, HEADER.length);
+        }
+    }
+}
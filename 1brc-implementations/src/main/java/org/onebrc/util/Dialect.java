@@ -0,0 +1,174 @@
+package org.onebrc.util;
+
+/**
+ * How a measurement file is written: the delimiter between station and temperature, the
+ * number of decimal places of the temperature and the line end. The challenge format is
+ * {@link #DEFAULT}, ; one decimal place and LF.
+ *
+ * Engines keep their hand tuned loop for the default and take a second loop with the
+ * {@link TemperatureParser} of the dialect for everything else. The parser is picked once
+ * per run, so the call site only ever sees one implementation and the JIT inlines it, the
+ * dialect values are final fields and hence constants for it too.
+ *
+ * Temperatures are ints in units of the decimal places, 12.34 is 1234 with two decimals.
+ * The input has to have exactly that many decimal places.
+ *
+ * From the system properties:
+ * <pre>
+ * -Donebrc.delimiter=,      one ASCII character or "tab"
+ * -Donebrc.decimals=2       0 to 3
+ * -Donebrc.eol=crlf         lf or crlf
+ * </pre>
+ */
+public record Dialect(byte delimiter, int decimals, boolean crlf)
+{
+    public static final Dialect DEFAULT = new Dialect((byte) ';', 1, false);
+
+    /**
+     * Parses the temperature of a line
+     */
+    @FunctionalInterface
+    public static interface TemperatureParser
+    {
+        /**
+         * @param data the data
+         * @param from the first byte after the delimiter
+         * @param end the position of the \n
+         * @return the temperature in units of the decimal places
+         */
+        int parse(byte[] data, int from, int end);
+    }
+
+    public Dialect
+    {
+        if (delimiter == '\n' || delimiter == '\r' || delimiter == '-' || delimiter == '.'
+                || (delimiter >= '0' && delimiter <= '9') || delimiter < 0)
+        {
+            throw new IllegalArgumentException("Delimiter cannot be " + (char) delimiter);
+        }
+        if (decimals < 0 || decimals > 3)
+        {
+            throw new IllegalArgumentException("Decimals must be 0 to 3, was " + decimals);
+        }
+    }
+
+    /**
+     * The dialect given by the system properties, the default for what is not given
+     */
+    public static Dialect fromSystemProperties()
+    {
+        final String d = System.getProperty("onebrc.delimiter", ";");
+        final byte delimiter;
+        if ("tab".equals(d))
+        {
+            delimiter = '\t';
+        }
+        else if (d.length() == 1 && d.charAt(0) < 128)
+        {
+            delimiter = (byte) d.charAt(0);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Delimiter must be one ASCII character or tab, was " + d);
+        }
+
+        final int decimals = Integer.parseInt(System.getProperty("onebrc.decimals", "1"));
+
+        final String eol = System.getProperty("onebrc.eol", "lf");
+        if (!"lf".equals(eol) && !"crlf".equals(eol))
+        {
+            throw new IllegalArgumentException("Line end must be lf or crlf, was " + eol);
+        }
+
+        return new Dialect(delimiter, decimals, "crlf".equals(eol));
+    }
+
+    public boolean isDefault()
+    {
+        return DEFAULT.equals(this);
+    }
+
+    /**
+     * The parser for this dialect, the fixed one for the default
+     */
+    public TemperatureParser parser()
+    {
+        if (this.decimals == 1 && !this.crlf)
+        {
+            return Dialect::parseOneDecimal;
+        }
+
+        final int trailing = this.crlf ? 1 : 0;
+        final int decimals = this.decimals;
+        return decimals == 0
+                ? (data, from, end) -> parseInteger(data, from, end - trailing)
+                : (data, from, end) -> parseDecimals(data, from, end - trailing, decimals);
+    }
+
+    /**
+     * -99.9 to 99.9, best case and worst case two branches
+     */
+    static int parseOneDecimal(final byte[] s, final int offset, final int end)
+    {
+        final int l = end - offset;
+        int value = s[end - 3] * 10 + s[end - 1] - ('0' * 10 + '0');
+
+        final byte firstChar = s[offset];
+        if (firstChar == '-')
+        {
+            if (l == 5)
+            {
+                value += (s[end - 4] - '0') * 100;
+            }
+            return -value;
+        }
+        if (l == 4)
+        {
+            value += (firstChar - '0') * 100;
+        }
+        return value;
+    }
+
+    /**
+     * Any number of digits without a dot
+     */
+    static int parseInteger(final byte[] s, int offset, final int end)
+    {
+        final boolean negative = s[offset] == '-';
+        if (negative)
+        {
+            offset++;
+        }
+
+        int value = 0;
+        for (int i = offset; i < end; i++)
+        {
+            value = value * 10 + (s[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * The dot is at a fixed place from the end, the digits before and after it are the value
+     */
+    static int parseDecimals(final byte[] s, int offset, final int end, final int decimals)
+    {
+        final boolean negative = s[offset] == '-';
+        if (negative)
+        {
+            offset++;
+        }
+
+        final int dot = end - decimals - 1;
+        int value = 0;
+        for (int i = offset; i < dot; i++)
+        {
+            value = value * 10 + (s[i] - '0');
+        }
+        for (int i = dot + 1; i < end; i++)
+        {
+            value = value * 10 + (s[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,288 @@
+package org.onebrc.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file range with O_DIRECT, hence bypassing the page cache. This gives us the
+ * cold read numbers, no matter what the OS has cached before, and does not push anything
+ * else out of the cache.
+ *
+ * O_DIRECT wants the file position, the length and the memory address aligned to the
+ * block size of the file system, so we read full blocks from an aligned start into aligned
+ * direct buffers and move position and limit of the buffer to the range we were asked for.
+ * Several reads are in flight at the same time, a buffer goes back into the queue as soon as
+ * the caller asks for the next one.
+ *
+ * Not all file systems support O_DIRECT, tmpfs for instance does not. In that case, we fall
+ * back to a normal read and {@link #isDirect()} tells you about it.
+ */
+public class DirectFileReader implements Closeable
+{
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    public static final int DEFAULT_READ_AHEAD = 4;
+
+    private final FileChannel channel;
+    private final boolean direct;
+    private final int blockSize;
+    private final int bufferSize;
+
+    private final long from;
+    private final long to;
+
+    // the next aligned position to read from
+    private long nextReadPos;
+
+    private final ArrayDeque<Block> inFlight;
+    private final ExecutorService executor;
+    private Block current;
+
+    private static record Block(long position, ByteBuffer buffer, Future<Integer> read)
+    {
+    }
+
+    /**
+     * ExtendedOpenOption.DIRECT, looked up once. It is JDK internal API, javac warns about
+     * every reference and no @SuppressWarnings silences that, so we go by reflection.
+     * Null when this JDK does not have it.
+     */
+    private static class Direct
+    {
+        static final OpenOption DIRECT = lookup();
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static OpenOption lookup()
+        {
+            try
+            {
+                final Class c = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+                return (OpenOption) Enum.valueOf(c, "DIRECT");
+            }
+            catch (ClassNotFoundException | IllegalArgumentException | ClassCastException e)
+            {
+                return null;
+            }
+        }
+    }
+
+    public DirectFileReader(final Path path, final long from, final long to) throws IOException
+    {
+        this(path, from, to, DEFAULT_BUFFER_SIZE, DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * @param path the file
+     * @param from the first byte we want
+     * @param to the first byte we don't want anymore, will be limited to the file size
+     * @param bufferSize the size of a single read, will be rounded up to the block size
+     * @param readAhead how many reads can be in flight
+     */
+    public DirectFileReader(final Path path, final long from, final long to, final int bufferSize, final int readAhead)
+            throws IOException
+    {
+        FileChannel c;
+        boolean d;
+        try
+        {
+            if (Direct.DIRECT == null)
+            {
+                throw new UnsupportedOperationException("No O_DIRECT in this JDK");
+            }
+            c = FileChannel.open(path, StandardOpenOption.READ, Direct.DIRECT);
+            d = true;
+        }
+        catch (UnsupportedOperationException | IOException e)
+        {
+            c = FileChannel.open(path, StandardOpenOption.READ);
+            d = false;
+        }
+        this.channel = c;
+        this.direct = d;
+
+        // 512 is the classic minimum, most will tell us 4096
+        this.blockSize = (int) Math.max(512, Files.getFileStore(path).getBlockSize());
+        this.bufferSize = (bufferSize + this.blockSize - 1) / this.blockSize * this.blockSize;
+
+        this.from = from;
+        this.to = Math.min(to, this.channel.size());
+        this.nextReadPos = from & -this.blockSize;
+
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.inFlight = new ArrayDeque<>(readAhead);
+
+        for (int i = 0; i < readAhead; i++)
+        {
+            submit(alignedBuffer(ByteBuffer.allocateDirect(this.bufferSize + this.blockSize), this.bufferSize, this.blockSize));
+        }
+    }
+
+    /**
+     * The aligned part of the raw buffer, cut to the buffer size. When the allocation is
+     * already aligned, -Dsun.nio.PageAlignDirectMemory=true for instance, the aligned part is
+     * a block longer than we read per submit and we would read more than we account for.
+     */
+    static ByteBuffer alignedBuffer(final ByteBuffer raw, final int bufferSize, final int blockSize)
+    {
+        return raw.alignedSlice(blockSize).slice(0, bufferSize);
+    }
+
+    /**
+     * Did we get O_DIRECT or did we have to fall back?
+     */
+    public boolean isDirect()
+    {
+        return this.direct;
+    }
+
+    /**
+     * Queue the next read into this buffer, if there is anything left to read
+     */
+    private void submit(final ByteBuffer buffer)
+    {
+        if (this.nextReadPos >= this.to)
+        {
+            return;
+        }
+
+        final long pos = this.nextReadPos;
+        this.nextReadPos += this.bufferSize;
+
+        buffer.clear();
+        this.inFlight.add(new Block(pos, buffer, this.executor.submit(() ->
+        {
+            int total = 0;
+            while (buffer.hasRemaining())
+            {
+                final int read = this.channel.read(buffer, pos + total);
+                if (read <= 0)
+                {
+                    break;
+                }
+                total += read;
+
+                // a short direct read means EOF, asking again at an
+                // unaligned position would fail
+                if (this.direct && (total & (this.blockSize - 1)) != 0)
+                {
+                    break;
+                }
+            }
+            return total;
+        })));
+    }
+
+    /**
+     * Returns the next buffer in file order with position and limit set to the
+     * requested range. The buffer is only valid till the next call, then it goes back
+     * into the read queue.
+     *
+     * @return the next buffer or null when we are done
+     * @throws IOException
+     */
+    public ByteBuffer next() throws IOException
+    {
+        // recycle first, so the next read is already running while we wait
+        if (this.current != null)
+        {
+            submit(this.current.buffer());
+            this.current = null;
+        }
+
+        final Block block = this.inFlight.poll();
+        if (block == null)
+        {
+            return null;
+        }
+
+        final int read;
+        try
+        {
+            read = block.read().get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException(e.getCause());
+        }
+
+        final ByteBuffer buffer = block.buffer();
+        final long start = Math.max(this.from, block.position());
+        final long end = Math.min(this.to, block.position() + read);
+        if (end <= start)
+        {
+            return null;
+        }
+
+        buffer.limit((int) (end - block.position()));
+        buffer.position((int) (start - block.position()));
+
+        this.current = block;
+        return buffer;
+    }
+
+    /**
+     * Stream like read for anyone who wants the data in a heap array
+     *
+     * @return the bytes read or -1 when we are done
+     * @throws IOException
+     */
+    public int read(final byte[] dst, final int offset, final int length) throws IOException
+    {
+        ByteBuffer buffer = this.current != null ? this.current.buffer() : null;
+        while (buffer == null || !buffer.hasRemaining())
+        {
+            buffer = next();
+            if (buffer == null)
+            {
+                return -1;
+            }
+        }
+
+        final int n = Math.min(length, buffer.remaining());
+        buffer.get(dst, offset, n);
+
+        return n;
+    }
+
+    /**
+     * Wait for all reads still running, we cannot free the buffers otherwise
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try (this.channel)
+        {
+            for (var block : this.inFlight)
+            {
+                try
+                {
+                    block.read().get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException e)
+                {
+                    // we are closing, nobody cares anymore
+                }
+            }
+            this.executor.shutdown();
+        }
+    }
+}
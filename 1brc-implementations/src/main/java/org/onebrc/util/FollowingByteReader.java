@@ -0,0 +1,203 @@
+package org.onebrc.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.onebrc.util.PositionableByteReader.LineView;
+
+/**
+ * Follows a file that is still being written, like tail -f. The channel stays open and
+ * every call looks for new bytes when the buffer has no complete line anymore. Only complete
+ * lines are returned, a line without its \n stays in the buffer till the rest arrives.
+ * When you know the file is complete, {@link #readLastLine()} hands out such a rest.
+ *
+ * Same bulk scan with sentinels as {@link PositionableByteReader#readLineView()}. Nothing is
+ * allocated after the constructor, the buffer, its ByteBuffer wrapper and the view are reused.
+ *
+ * We assume that the file only grows. When it gets shorter than what we have read, someone
+ * truncated or replaced it and we tell about it with an IOException.
+ */
+public class FollowingByteReader implements Closeable
+{
+    private static final int BUFFER_SIZE = 81920;
+
+    private final FileChannel channel;
+    private final byte[] buffer = new byte[BUFFER_SIZE + 2];
+    private final ByteBuffer wrapper = ByteBuffer.wrap(this.buffer);
+    private final LineView view = new LineView();
+
+    // where the next read from the file goes
+    private long filePos;
+
+    private int bufferPos;
+    private int bufferLimit;
+
+    /**
+     * @param path the file
+     * @param from where to start, has to be a line start, 0 for the whole file
+     */
+    public FollowingByteReader(final Path path, final long from) throws IOException
+    {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.filePos = from;
+
+        this.buffer[0] = ';';
+        this.buffer[1] = '\n';
+    }
+
+    /**
+     * The file position of the first byte we have not returned as part of a line yet
+     */
+    public long position()
+    {
+        return this.filePos - (this.bufferLimit - this.bufferPos);
+    }
+
+    /**
+     * The next complete line. The view is only valid till the next call.
+     *
+     * @return the view or null, when there is no complete line right now, try again later
+     * @throws IOException when the line is longer than our buffer or the file got shorter
+     */
+    public LineView readLineView() throws IOException
+    {
+        while (true)
+        {
+            final byte[] b = this.buffer;
+            final int start = this.bufferPos;
+
+            // read till semicolon and hash on the go
+            int hash = 0;
+            int i = start;
+            byte c;
+            while ((c = b[i]) != ';')
+            {
+                hash = hash * 31 + c;
+                i++;
+            }
+            final int semicolon = i;
+
+            // read the rest
+            while (b[++i] != '\n')
+            {
+            }
+
+            // within the valid data, the sentinels don't count
+            if (i < this.bufferLimit)
+            {
+                view.bytes = b;
+                view.start = start;
+                view.semicolon = semicolon;
+                view.end = i;
+                view.cityHash = hash;
+
+                this.bufferPos = i + 1;
+
+                return view;
+            }
+
+            // incomplete, see if there is more
+            final int read = fillBuffer();
+            if (read == 0)
+            {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The rest behind the last \n as a line of its own, for a file that is complete but
+     * does not end with a \n. Only call it when {@link #readLineView()} returned null and
+     * you stop following, the rest is handed out once and not waited for anymore.
+     *
+     * @return the view or null, when there is no rest or it has no semicolon
+     */
+    public LineView readLastLine()
+    {
+        final byte[] b = this.buffer;
+        final int start = this.bufferPos;
+        final int end = this.bufferLimit;
+        // it is gone either way
+        this.bufferPos = end;
+
+        if (start >= end)
+        {
+            return null;
+        }
+
+        int hash = 0;
+        int i = start;
+        byte c;
+        while ((c = b[i]) != ';')
+        {
+            hash = hash * 31 + c;
+            i++;
+        }
+
+        // only our sentinel
+        if (i >= end)
+        {
+            return null;
+        }
+
+        view.bytes = b;
+        view.start = start;
+        view.semicolon = i;
+        view.end = end;
+        view.cityHash = hash;
+
+        return view;
+    }
+
+    /**
+     * Move the incomplete rest to the front and append what the file has got
+     *
+     * @return the bytes read, 0 when there is nothing new
+     */
+    private int fillBuffer() throws IOException
+    {
+        final int rest = this.bufferLimit - this.bufferPos;
+        if (rest > 0 && this.bufferPos > 0)
+        {
+            System.arraycopy(this.buffer, this.bufferPos, this.buffer, 0, rest);
+        }
+        this.bufferPos = 0;
+        this.bufferLimit = rest;
+
+        if (rest == BUFFER_SIZE)
+        {
+            throw new IOException("Line does not fit into the buffer");
+        }
+
+        final long size = this.channel.size();
+        if (size < this.filePos)
+        {
+            throw new IOException(String.format("File got shorter, was at %,d, now %,d", this.filePos, size));
+        }
+
+        int read = 0;
+        if (size > this.filePos)
+        {
+            this.wrapper.clear().position(rest).limit(BUFFER_SIZE);
+            read = Math.max(0, this.channel.read(this.wrapper, this.filePos));
+            this.filePos += read;
+            this.bufferLimit += read;
+        }
+
+        // our sentinels, so the bulk scan never needs a limit check
+        this.buffer[this.bufferLimit] = ';';
+        this.buffer[this.bufferLimit + 1] = '\n';
+
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.channel.close();
+    }
+}
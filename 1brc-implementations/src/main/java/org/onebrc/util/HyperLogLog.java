@@ -0,0 +1,151 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A small HyperLogLog to estimate how many different stations there are, so we can size
+ * our station tables right from the start. Too small means rehashing in the middle of the
+ * run, too large means wasted cache.
+ *
+ * 2^12 registers give us about 1.6% standard error, that is plenty for picking a
+ * power of two.
+ *
+ * {@link #estimateStations(Path)} reads a few MB from several places of the file, so it
+ * counts the stations of the sample. With the hundreds of rows per station a few MB give
+ * us, that is all of them for our data.
+ */
+public class HyperLogLog
+{
+    private static final int P = 12;
+    private static final int M = 1 << P;
+    private static final double ALPHA = 0.7213d / (1d + 1.079d / M);
+
+    private static final int SAMPLE_SIZE = 4 * 1024 * 1024;
+    private static final int SAMPLE_PLACES = 16;
+
+    private final byte[] registers = new byte[M];
+
+    /**
+     * Add a name
+     */
+    public void add(final byte[] data, final int offset, final int length)
+    {
+        final long hash = hash(data, offset, length);
+
+        final int index = (int) (hash >>> (64 - P));
+        // the remaining bits with a stop bit, so we never count beyond them
+        final int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+
+        if (rank > this.registers[index])
+        {
+            this.registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * The estimated number of different names added
+     */
+    public long estimate()
+    {
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < M; i++)
+        {
+            sum += 1d / (1L << this.registers[i]);
+            if (this.registers[i] == 0)
+            {
+                zeros++;
+            }
+        }
+
+        final double estimate = ALPHA * M * M / sum;
+
+        // small numbers, linear counting is better here
+        if (estimate <= 2.5d * M && zeros > 0)
+        {
+            return Math.round(M * Math.log((double) M / zeros));
+        }
+
+        return Math.round(estimate);
+    }
+
+    /**
+     * FNV-1a 64 with the murmur3 finalizer, FNV alone does not spread the high bits well enough
+     */
+    static long hash(final byte[] data, final int offset, final int length)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++)
+        {
+            h ^= data[i];
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    /**
+     * Estimate the stations from a few MB sampled from several places of the file
+     */
+    public static long estimateStations(final Path file) throws IOException
+    {
+        final HyperLogLog hll = new HyperLogLog();
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            final ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE / SAMPLE_PLACES);
+            for (var chunk : ChunkSplitter.split(channel, SAMPLE_PLACES))
+            {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), chunk.length()));
+                while (buffer.hasRemaining() && channel.read(buffer, chunk.start() + buffer.position()) > 0)
+                {
+                }
+
+                // full lines only, the chunk starts with one
+                final byte[] data = buffer.array();
+                final int end = buffer.position();
+                int start = 0;
+                int semicolon = -1;
+                for (int i = 0; i < end; i++)
+                {
+                    final byte b = data[i];
+                    if (b == ';')
+                    {
+                        semicolon = i;
+                    }
+                    else if (b == '\n')
+                    {
+                        if (semicolon > start)
+                        {
+                            hll.add(data, start, semicolon - start);
+                        }
+                        start = i + 1;
+                        semicolon = -1;
+                    }
+                }
+            }
+        }
+
+        return hll.estimate();
+    }
+
+    /**
+     * The capacity for a table with a load factor of 0.5 that won't resize for the
+     * estimate, we add a little for the error of the estimate
+     */
+    public static int tableCapacity(final long estimate)
+    {
+        final long needed = Math.max(16, (long) (estimate * 1.1d) * 2 + 1);
+        return (int) Math.min(1 << 30, Long.highestOneBit(needed - 1) << 1);
+    }
+}
@@ -0,0 +1,420 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * A station table for millions of stations. The LightSet stops the world to rehash when it
+ * is full and has one City and one byte[] per station. This one grows incrementally and keeps
+ * everything in a few large arrays.
+ *
+ * Growing: When the table is half full, we allocate a table of twice the size and from then on,
+ * every update moves a few slots of the old table over. Lookups check the new table first and
+ * then the part of the old table that has not moved yet. The old table is done long before the
+ * new one is half full, so there are never more than two.
+ *
+ * Slots: Four longs per slot, two slots per cache line, no objects at all:
+ * <pre>
+ * 0: hash (high int) | name length (low int), a length of 0 means empty
+ * 1: name reference into the arena
+ * 2: min (high short) | max (next short) | count (low int)
+ * 3: total
+ * </pre>
+ * The temperatures are -999 to 999 tenth-degree, so min and max fit into a short.
+ *
+ * Names: All names go into a paged arena, pages are never copied, so growing the arena does
+ * not stop us either. A name never spans two pages. Names have at least one byte, as the
+ * rules say, because a length of 0 marks an empty slot.
+ *
+ * The count is an int per table, that is two billion rows per station and table, more throws
+ * an ArithmeticException instead of wrapping.
+ */
+public class IncrementalStationTable
+{
+    private static final int STRIDE = 4;
+    private static final int MIGRATE_PER_UPDATE = 8;
+
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // the current table
+    private long[] slots;
+    private int mask;
+    private int threshold;
+
+    // the table we move away from or null
+    private long[] old;
+    private int oldMask;
+    private int migrated;
+
+    private int size;
+
+    // the name arena
+    private byte[][] pages = new byte[16][];
+    private int page = -1;
+    private int pagePos = PAGE_SIZE;
+
+    public IncrementalStationTable(final int initialCapacity)
+    {
+        final int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, initialCapacity) - 1) << 1);
+        this.slots = new long[capacity * STRIDE];
+        this.mask = capacity - 1;
+        this.threshold = capacity >> 1;
+    }
+
+    /**
+     * Spread the bits, the polynomial hash of the reader is weak in the low bits
+     */
+    private static int spread(final int hash)
+    {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The hot one, a single measurement
+     */
+    public void update(final byte[] data, final int start, final int length, final int hash, final int temperature)
+    {
+        add(data, start, length, hash, temperature, temperature, temperature, 1);
+    }
+
+    /**
+     * Add already aggregated data, the hash must be the one the reader calculates
+     */
+    public void add(final byte[] data, final int start, final int length, final int hash,
+            final int min, final int max, final long total, final int count)
+    {
+        addSpread(data, start, length, spread(hash), min, max, total, count);
+    }
+
+    private void addSpread(final byte[] data, final int start, final int length, final int h,
+            final int min, final int max, final long total, final int count)
+    {
+        if (this.old != null)
+        {
+            migrate(MIGRATE_PER_UPDATE);
+        }
+
+        // new table first
+        int index = h & this.mask;
+        while (true)
+        {
+            final int s = index * STRIDE;
+            final long head = this.slots[s];
+            if (head == 0)
+            {
+                break;
+            }
+            if ((int) (head >>> 32) == h && (int) head == length && equalsName(this.slots[s + 1], data, start, length))
+            {
+                merge(this.slots, s, min, max, total, count);
+                return;
+            }
+            index = (index + 1) & this.mask;
+        }
+        final int free = index;
+
+        // what has not moved yet
+        if (this.old != null)
+        {
+            int i = h & this.oldMask;
+            while (true)
+            {
+                final int s = i * STRIDE;
+                final long head = this.old[s];
+                if (head == 0)
+                {
+                    break;
+                }
+                // below migrated, it is in the new table already, but we must not stop here
+                if (i >= this.migrated && (int) (head >>> 32) == h && (int) head == length
+                        && equalsName(this.old[s + 1], data, start, length))
+                {
+                    merge(this.old, s, min, max, total, count);
+                    return;
+                }
+                i = (i + 1) & this.oldMask;
+            }
+        }
+
+        // new station
+        final int s = free * STRIDE;
+        this.slots[s] = ((long) h << 32) | length;
+        this.slots[s + 1] = store(data, start, length);
+        this.slots[s + 2] = pack(min, max, count);
+        this.slots[s + 3] = total;
+
+        if (++this.size > this.threshold)
+        {
+            grow();
+        }
+    }
+
+    private static long pack(final int min, final int max, final int count)
+    {
+        return ((long) (min & 0xFFFF) << 48) | ((long) (max & 0xFFFF) << 32) | (count & 0xFFFFFFFFL);
+    }
+
+    private static int min(final long packed)
+    {
+        return (short) (packed >>> 48);
+    }
+
+    private static int max(final long packed)
+    {
+        return (short) (packed >>> 32);
+    }
+
+    private static int count(final long packed)
+    {
+        return (int) packed;
+    }
+
+    private static void merge(final long[] table, final int s, final int min, final int max, final long total, final int count)
+    {
+        final long packed = table[s + 2];
+        table[s + 2] = pack(Math.min(min(packed), min), Math.max(max(packed), max),
+                Math.addExact(count(packed), count));
+        table[s + 3] += total;
+    }
+
+    private boolean equalsName(final long ref, final byte[] data, final int start, final int length)
+    {
+        final byte[] p = this.pages[(int) (ref >>> PAGE_BITS)];
+        final int offset = (int) (ref & (PAGE_SIZE - 1));
+        return Arrays.equals(p, offset, offset + length, data, start, start + length);
+    }
+
+    /**
+     * Append the name to the arena, a new page if it does not fit anymore
+     */
+    private long store(final byte[] data, final int start, final int length)
+    {
+        if (this.pagePos + length > PAGE_SIZE)
+        {
+            if (length > PAGE_SIZE)
+            {
+                throw new IllegalArgumentException("Station name longer than " + PAGE_SIZE + " bytes");
+            }
+            if (++this.page == this.pages.length)
+            {
+                this.pages = Arrays.copyOf(this.pages, this.pages.length << 1);
+            }
+            this.pages[this.page] = new byte[PAGE_SIZE];
+            this.pagePos = 0;
+        }
+
+        System.arraycopy(data, start, this.pages[this.page], this.pagePos, length);
+        final long ref = ((long) this.page << PAGE_BITS) | this.pagePos;
+        this.pagePos += length;
+
+        return ref;
+    }
+
+    /**
+     * Start moving into a table of twice the size
+     */
+    private void grow()
+    {
+        // should not happen, the old one is done long before, but just in case
+        if (this.old != null)
+        {
+            migrate(Integer.MAX_VALUE);
+        }
+
+        this.old = this.slots;
+        this.oldMask = this.mask;
+        this.migrated = 0;
+
+        final int capacity = (this.mask + 1) << 1;
+        this.slots = new long[capacity * STRIDE];
+        this.mask = capacity - 1;
+        this.threshold = capacity >> 1;
+    }
+
+    /**
+     * Move some old slots over, the names stay where they are in the arena
+     */
+    private void migrate(final int count)
+    {
+        final int end = (int) Math.min(this.oldMask + 1L, (long) this.migrated + count);
+        for (int i = this.migrated; i < end; i++)
+        {
+            final int s = i * STRIDE;
+            final long head = this.old[s];
+            if (head != 0)
+            {
+                int index = (int) (head >>> 32) & this.mask;
+                while (this.slots[index * STRIDE] != 0)
+                {
+                    index = (index + 1) & this.mask;
+                }
+                final int t = index * STRIDE;
+                this.slots[t] = head;
+                this.slots[t + 1] = this.old[s + 1];
+                this.slots[t + 2] = this.old[s + 2];
+                this.slots[t + 3] = this.old[s + 3];
+            }
+        }
+        this.migrated = end;
+
+        if (this.migrated > this.oldMask)
+        {
+            this.old = null;
+        }
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * The bytes our arrays hold, the tables and the arena pages, so callers can stay
+     * within a memory budget
+     */
+    public long memory()
+    {
+        long bytes = this.slots.length * 8L + (this.page + 1L) * PAGE_SIZE + this.pages.length * 8L;
+        if (this.old != null)
+        {
+            bytes += this.old.length * 8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Hands all stations to the sink ordered by name, the order of the TreeMap of
+     * Strings, see {@link NameSort}
+     */
+    public void forEachOrdered(final StationSink sink) throws IOException
+    {
+        forEachOrdered(sink, this);
+    }
+
+    /**
+     * Hands all stations of tables that don't share any station to the sink ordered by name,
+     * such as the tables of hash partitions
+     */
+    public static void forEachOrdered(final StationSink sink, final IncrementalStationTable... tables) throws IOException
+    {
+        int n = 0;
+        for (var t : tables)
+        {
+            if (t.old != null)
+            {
+                t.migrate(Integer.MAX_VALUE);
+            }
+            n += t.size;
+        }
+
+        // where the names are, and where the rest is
+        final byte[][] data = new byte[n][];
+        final int[] offsets = new int[n];
+        final int[] lengths = new int[n];
+        final long[][] table = new long[n][];
+        final int[] slot = new int[n];
+
+        int i = 0;
+        for (var t : tables)
+        {
+            for (int s = 0; s < t.slots.length; s += STRIDE)
+            {
+                final long head = t.slots[s];
+                if (head != 0)
+                {
+                    final long ref = t.slots[s + 1];
+                    data[i] = t.pages[(int) (ref >>> PAGE_BITS)];
+                    offsets[i] = (int) (ref & (PAGE_SIZE - 1));
+                    lengths[i] = (int) head;
+                    table[i] = t.slots;
+                    slot[i] = s;
+                    i++;
+                }
+            }
+        }
+
+        for (final int o : NameSort.sort(data, offsets, lengths))
+        {
+            final long packed = table[o][slot[o] + 2];
+            sink.station(data[o], offsets[o], lengths[o], min(packed), max(packed), table[o][slot[o] + 3], count(packed));
+        }
+    }
+
+    /**
+     * Hands all stations to the sink, in no particular order
+     */
+    public void forEach(final StationSink sink) throws IOException
+    {
+        if (this.old != null)
+        {
+            forEach(this.old, this.migrated, sink);
+        }
+        forEach(this.slots, 0, sink);
+    }
+
+    private void forEach(final long[] table, final int from, final StationSink sink) throws IOException
+    {
+        for (int s = from * STRIDE; s < table.length; s += STRIDE)
+        {
+            final long head = table[s];
+            if (head != 0)
+            {
+                final long ref = table[s + 1];
+                final long packed = table[s + 2];
+                sink.station(this.pages[(int) (ref >>> PAGE_BITS)], (int) (ref & (PAGE_SIZE - 1)), (int) head,
+                        min(packed), max(packed), table[s + 3], count(packed));
+            }
+        }
+    }
+
+    /**
+     * Merge another table into this one, O(stations of the other)
+     */
+    public void addAll(final IncrementalStationTable other)
+    {
+        if (other.old != null)
+        {
+            addAll(other, other.old, other.migrated);
+        }
+        addAll(other, other.slots, 0);
+    }
+
+    private void addAll(final IncrementalStationTable other, final long[] table, final int from)
+    {
+        for (int s = from * STRIDE; s < table.length; s += STRIDE)
+        {
+            final long head = table[s];
+            if (head != 0)
+            {
+                final long ref = table[s + 1];
+                final long packed = table[s + 2];
+                addSpread(other.pages[(int) (ref >>> PAGE_BITS)], (int) (ref & (PAGE_SIZE - 1)), (int) head, (int) (head >>> 32),
+                        min(packed), max(packed), table[s + 3], count(packed));
+            }
+        }
+    }
+
+    /**
+     * The classic result, name=count/min/mean/max ordered by name
+     */
+    public TreeMap<String, String> toTreeMap()
+    {
+        final var map = new TreeMap<String, String>();
+        try
+        {
+            forEach((name, offset, length, min, max, total, count) ->
+                map.put(new String(name, offset, length), MathUtil.toStringFromInteger(total, count, min, max)));
+        }
+        catch (IOException e)
+        {
+            // our own lambda does not throw
+            throw new UncheckedIOException(e);
+        }
+
+        return map;
+    }
+}
@@ -0,0 +1,84 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * One JSON object, station names are the keys:
+ * {"Abha":{"min":-31.1,"mean":18.0,"max":66.5,"count":123},...}
+ */
+public class JsonResultWriter extends ResultWriter
+{
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private static final byte[] MIN = "\":{\"min\":".getBytes();
+    private static final byte[] MEAN = ",\"mean\":".getBytes();
+    private static final byte[] MAX = ",\"max\":".getBytes();
+    private static final byte[] COUNT = ",\"count\":".getBytes();
+
+    private boolean first = true;
+
+    public JsonResultWriter(final WritableByteChannel channel)
+    {
+        super(channel);
+    }
+
+    @Override
+    public void station(final byte[] name, final int offset, final int length,
+            final int min, final int max, final long total, final long count) throws IOException
+    {
+        put(this.first ? (byte) '{' : (byte) ',');
+        this.first = false;
+
+        put((byte) '"');
+        putEscaped(name, offset, length);
+        put(MIN, 0, MIN.length);
+        putTenths(min);
+        put(MEAN, 0, MEAN.length);
+        putMean(total, count);
+        put(MAX, 0, MAX.length);
+        putTenths(max);
+        put(COUNT, 0, COUNT.length);
+        putCount(count);
+        put((byte) '}');
+    }
+
+    /**
+     * Only " and \ and the control characters need escaping, the rest of UTF-8 is fine as is
+     */
+    private void putEscaped(final byte[] name, final int offset, final int length) throws IOException
+    {
+        int start = offset;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++)
+        {
+            final byte b = name[i];
+            if (b == '"' || b == '\\' || (b >= 0 && b < 0x20))
+            {
+                put(name, start, i - start);
+                ensure(6);
+                if (b == '"' || b == '\\')
+                {
+                    this.buffer.put((byte) '\\').put(b);
+                }
+                else
+                {
+                    this.buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEX[b >> 4]).put(HEX[b & 0xF]);
+                }
+                start = i + 1;
+            }
+        }
+        put(name, start, end - start);
+    }
+
+    @Override
+    protected void end() throws IOException
+    {
+        if (this.first)
+        {
+            put((byte) '{');
+        }
+        put((byte) '}');
+    }
+}
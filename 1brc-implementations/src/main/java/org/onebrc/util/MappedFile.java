@@ -0,0 +1,270 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Maps a file read-only into a MemorySegment, either with FileChannel.map or with our own
+ * mmap call through the FFM API. FileChannel.map gives us no say in how the kernel faults
+ * the pages in, our own mmap can ask for MAP_POPULATE, which faults the whole file in with
+ * the call. On top, madvise can be applied per chunk to any of the two mappings.
+ *
+ * madvise takes one advice per call, so several advices are several calls, the values
+ * cannot be or-ed. The kernel is free to refuse an advice, MADV_HUGEPAGE for instance
+ * needs transparent huge pages for the file system, hence a refusal is not an error,
+ * {@link #advise} just tells you about it.
+ *
+ * Linux only, the constants are the ones of x86_64 and aarch64. Needs
+ * --enable-native-access=ALL-UNNAMED to run without a warning.
+ *
+ * From the system properties:
+ * <pre>
+ * -Donebrc.mmap=native           channel (default) or native
+ * -Donebrc.populate=true         MAP_POPULATE, native only
+ * -Donebrc.madvise=sequential,willneed,hugepage   any of them, per chunk
+ * </pre>
+ */
+public final class MappedFile
+{
+    private static final int PROT_READ = 0x1;
+    private static final int MAP_PRIVATE = 0x2;
+    private static final int MAP_POPULATE = 0x8000;
+    private static final int O_RDONLY = 0;
+    private static final long MAP_FAILED = -1L;
+
+    /**
+     * The advices we support
+     */
+    public enum Advice
+    {
+        SEQUENTIAL(2),
+        WILLNEED(3),
+        HUGEPAGE(14);
+
+        final int value;
+
+        Advice(final int value)
+        {
+            this.value = value;
+        }
+    }
+
+    /**
+     * How to map
+     *
+     * @param nativeMap our own mmap instead of FileChannel.map
+     * @param populate MAP_POPULATE, only for our own mmap
+     * @param advices what to tell the kernel per chunk, can be empty
+     */
+    public record Options(boolean nativeMap, boolean populate, Set<Advice> advices)
+    {
+        public static final Options DEFAULT = new Options(false, false, Set.of());
+
+        public Options
+        {
+            if (populate && !nativeMap)
+            {
+                throw new IllegalArgumentException("MAP_POPULATE needs the native mapping");
+            }
+            advices = Set.copyOf(advices);
+        }
+
+        /**
+         * The options given by the system properties, the default for what is not given
+         */
+        public static Options fromSystemProperties()
+        {
+            final String mode = System.getProperty("onebrc.mmap", "channel");
+            if (!"channel".equals(mode) && !"native".equals(mode))
+            {
+                throw new IllegalArgumentException("Mapping must be channel or native, was " + mode);
+            }
+
+            final Set<Advice> advices = EnumSet.noneOf(Advice.class);
+            for (var a : System.getProperty("onebrc.madvise", "").split(","))
+            {
+                if (!a.isBlank())
+                {
+                    advices.add(Advice.valueOf(a.trim().toUpperCase(Locale.ROOT)));
+                }
+            }
+
+            return new Options("native".equals(mode), Boolean.getBoolean("onebrc.populate"), advices);
+        }
+    }
+
+    // looked up when needed, the channel mapping does not need any of it
+    private static final class Native
+    {
+        static final Linker LINKER = Linker.nativeLinker();
+
+        static final MethodHandle OPEN = handle("open",
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
+        static final MethodHandle CLOSE = handle("close",
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+        static final MethodHandle MMAP = handle("mmap",
+                FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG,
+                        ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG));
+        static final MethodHandle MUNMAP = handle("munmap",
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+        static final MethodHandle MADVISE = handle("madvise",
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT));
+        static final MethodHandle GETPAGESIZE = handle("getpagesize",
+                FunctionDescriptor.of(ValueLayout.JAVA_INT));
+
+        static final long PAGE_SIZE = pageSize();
+
+        private static MethodHandle handle(final String name, final FunctionDescriptor descriptor)
+        {
+            return LINKER.downcallHandle(
+                    LINKER.defaultLookup().find(name).orElseThrow(() -> new UnsupportedOperationException(name + " not found")),
+                    descriptor);
+        }
+
+        private static long pageSize()
+        {
+            try
+            {
+                return (int) GETPAGESIZE.invokeExact();
+            }
+            catch (Throwable e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private MappedFile()
+    {
+    }
+
+    /**
+     * Map the whole file, the mapping lives as long as the arena
+     *
+     * @param path the file
+     * @param arena the arena that owns the mapping
+     * @param options how to map
+     * @return the read-only segment of the file
+     * @throws IOException
+     */
+    public static MemorySegment map(final Path path, final Arena arena, final Options options) throws IOException
+    {
+        if (!options.nativeMap())
+        {
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ))
+            {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            }
+        }
+
+        final long size = Files.size(path);
+        if (size == 0)
+        {
+            // mmap does not like zero
+            return MemorySegment.NULL;
+        }
+
+        try (var temp = Arena.ofConfined())
+        {
+            final byte[] name = (path.toAbsolutePath().toString() + '\0').getBytes(StandardCharsets.UTF_8);
+            final MemorySegment cName = temp.allocate(name.length);
+            MemorySegment.copy(name, 0, cName, ValueLayout.JAVA_BYTE, 0, name.length);
+
+            final int fd = (int) Native.OPEN.invokeExact(cName, O_RDONLY);
+            if (fd < 0)
+            {
+                throw new IOException("Cannot open " + path);
+            }
+
+            final MemorySegment address;
+            try
+            {
+                final int flags = MAP_PRIVATE | (options.populate() ? MAP_POPULATE : 0);
+                address = (MemorySegment) Native.MMAP.invokeExact(MemorySegment.NULL, size, PROT_READ, flags, fd, 0L);
+            }
+            finally
+            {
+                // the mapping keeps the file, we don't need the descriptor anymore
+                final int ignored = (int) Native.CLOSE.invokeExact(fd);
+            }
+
+            if (address.address() == MAP_FAILED)
+            {
+                throw new IOException("Cannot map " + path);
+            }
+
+            return address.reinterpret(size, arena, s -> unmap(s, size));
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    private static void unmap(final MemorySegment segment, final long size)
+    {
+        try
+        {
+            final int ignored = (int) Native.MUNMAP.invokeExact(segment, size);
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Apply all advices of the options to a range of the segment, the range is widened to
+     * full pages
+     *
+     * @param segment the mapping, from {@link #map} or any other mapping
+     * @param offset the start of the range in the segment
+     * @param length the length of the range
+     * @param advices the advices
+     * @return true when the kernel took all advices
+     */
+    public static boolean advise(final MemorySegment segment, final long offset, final long length, final Set<Advice> advices)
+    {
+        if (advices.isEmpty() || length <= 0)
+        {
+            return true;
+        }
+
+        final long pageMask = Native.PAGE_SIZE - 1;
+        final long start = segment.address() + offset;
+        final long alignedStart = start & ~pageMask;
+        final long alignedLength = start + length - alignedStart;
+        final MemorySegment range = MemorySegment.ofAddress(alignedStart);
+
+        boolean all = true;
+        for (var advice : advices)
+        {
+            try
+            {
+                all &= (int) Native.MADVISE.invokeExact(range, alignedLength, advice.value) == 0;
+            }
+            catch (Throwable e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+        return all;
+    }
+}
@@ -0,0 +1,276 @@
+package org.onebrc.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The same idea and api as {@link BasicWindowedBuffer}, but the file is mapped as one
+ * MemorySegment and the window just slides over it. Nothing is copied, the window only
+ * defines how far we can read before we have to check again. All positions and marks
+ * are longs, so files larger than 2 GB are fine.
+ *
+ * You can hand in an already mapped segment, so several chunks of the same file can share
+ * one mapping. In that case, the segment is not ours and close won't release it.
+ *
+ * Careful, the positions are not the ones of the BasicWindowedBuffer. There, bufferPos,
+ * bufferEnd and the marks are ints relative to the buffer array, they start at 0 and move
+ * when the buffer is refilled, the file position is bufferViewFrom + bufferPos. Here, they
+ * are absolute positions in the file and never move, bufferPos is the file position and
+ * starts at from. Code that only uses the methods does not care, code that touches the
+ * fields directly does.
+ */
+public class MappedWindowedBuffer implements Closeable
+{
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final int windowSize;
+
+    public final long from;
+    public final long to;
+
+    public long bufferViewFrom;
+    public long bufferViewTo;
+
+    public final long fileSize;
+
+    // absolute positions in the segment
+    public long bufferPos;
+    public long bufferEnd;
+
+    public long mark1 = -1;
+    public long mark2 = -1;
+
+    public MappedWindowedBuffer(final Path path, final int windowSize) throws IOException
+    {
+        this(path, 0, -1, windowSize);
+    }
+
+    public MappedWindowedBuffer(final Path path, final long from, final long to, final int windowSize)
+            throws IOException
+    {
+        this.arena = Arena.ofShared();
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            this.segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), this.arena);
+        }
+        catch (IOException e)
+        {
+            this.arena.close();
+            throw e;
+        }
+
+        this.windowSize = windowSize;
+        this.fileSize = this.segment.byteSize();
+        this.from = from;
+        this.to = to < 0 ? this.fileSize - 1 : to;
+
+        this.bufferViewFrom = from;
+        this.bufferViewTo = from;
+        this.bufferPos = from;
+        this.bufferEnd = from - 1;
+    }
+
+    /**
+     * Work on a segment someone else has mapped and will release.
+     */
+    public MappedWindowedBuffer(final MemorySegment segment, final long from, final long to, final int windowSize)
+    {
+        this.arena = null;
+        this.segment = segment;
+
+        this.windowSize = windowSize;
+        this.fileSize = this.segment.byteSize();
+        this.from = from;
+        this.to = to;
+
+        this.bufferViewFrom = from;
+        this.bufferViewTo = from;
+        this.bufferPos = from;
+        this.bufferEnd = from - 1;
+    }
+
+    /**
+     * Remember this pos. Typically a start pos
+     */
+    public void mark1()
+    {
+        this.mark1 = this.bufferPos;
+    }
+
+    /**
+     * Our second position and you can apply an offset for later
+     * access to data.
+     *
+     * @param offset
+     */
+    public void mark2(final int offset)
+    {
+        this.mark2 = this.bufferPos + offset;
+    }
+
+    /**
+     * Check the mark area against our other array. Same as for the BasicWindowedBuffer,
+     * the length is mark2 - mark1. Because we never move data around, it does not matter
+     * how many windows are between the marks.
+     */
+    public boolean matchMarkedArea(final byte[] data)
+    {
+        // check length first to bail out early
+        final int length = data.length;
+        if (length != this.mark2 - this.mark1)
+        {
+            return false;
+        }
+
+        return MemorySegment.mismatch(
+                this.segment, this.mark1, this.mark2,
+                MemorySegment.ofArray(data), 0, length) == -1;
+    }
+
+    /**
+     * Returns a copy of the marked area, including the byte at mark2 as the
+     * BasicWindowedBuffer does it.
+     */
+    public byte[] copyMarkedArea()
+    {
+        return this.segment.asSlice(this.mark1, this.mark2 - this.mark1 + 1).toArray(ValueLayout.JAVA_BYTE);
+    }
+
+    /**
+     * The zero-copy way to the marked area, in contrast to copyMarkedArea, this excludes mark2.
+     * Only valid as long as the segment is.
+     */
+    public MemorySegment markedArea()
+    {
+        return this.segment.asSlice(this.mark1, this.mark2 - this.mark1);
+    }
+
+    /**
+     * Returns the window size, named like the buffer for the same api, mainly for testing
+     * @return window size
+     */
+    public int bufferSize()
+    {
+        return this.windowSize;
+    }
+
+    /**
+     * The full mapping, for anyone who wants to go fully zero-copy
+     */
+    public MemorySegment segment()
+    {
+        return this.segment;
+    }
+
+    /**
+     * Release the mapping, if it is ours
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (this.arena != null)
+        {
+            this.arena.close();
+        }
+    }
+
+    /**
+     * Slide the window. No copying, marks stay where they are, because
+     * the data does not move.
+     */
+    private void fillBuffer() throws EOFException
+    {
+        if (this.bufferPos >= this.fileSize)
+        {
+            throw new EOFException("EndOfFileReached");
+        }
+
+        this.bufferEnd = Math.min(this.fileSize, this.bufferPos + this.windowSize) - 1;
+
+        this.bufferViewFrom = this.bufferPos;
+        this.bufferViewTo = this.bufferEnd + 1;
+    }
+
+    /**
+     * Indicate that we have no markers open
+     */
+    public void resetMark()
+    {
+        this.mark1 = this.mark2 = -1;
+    }
+
+    /**
+     * Ok, read a single byte, make this as small as possible for perfect inlining
+     */
+    public byte read() throws IOException, EOFException
+    {
+        // safe to read the next?
+        if (this.bufferPos > this.bufferEnd)
+        {
+            fillBuffer();
+        }
+
+        if (this.bufferPos <= this.to)
+        {
+            // get us the next byte
+            return this.segment.get(ValueLayout.JAVA_BYTE, this.bufferPos++);
+        }
+        else
+        {
+            throw new IndexOutOfBoundsException(
+                    String.format("Tried to read over the end, read %,d with limit %,d",
+                            this.bufferPos, this.to));
+        }
+    }
+
+    /**
+     * Skip a byte
+     */
+    public void skip()
+    {
+        this.bufferPos++;
+    }
+
+    /**
+     * No window checks, the segment still checks its own bounds, so this is not
+     * as unsafe as the name says.
+     */
+    public byte readUnsafe()
+    {
+        // get us the next byte
+        return this.segment.get(ValueLayout.JAVA_BYTE, this.bufferPos++);
+    }
+
+    /**
+     * How much data is left in the window? This helps us to make the call if
+     * we can read unsafe.
+     */
+    public int remainingBufferedBytes()
+    {
+        return (int) (this.bufferEnd - this.bufferPos + 1);
+    }
+
+    /**
+     * How much data is left in the file without taking the
+     * planned read limit, the to param, into account?
+     */
+    public long remainingFileBytes()
+    {
+        return this.fileSize - this.bufferPos;
+    }
+
+    /**
+     * How much is left when taking the set limit into account?
+     */
+    public long remainingBytesToRead()
+    {
+        return this.to - this.bufferPos + 1;
+    }
+}
@@ -1,5 +1,7 @@
 package org.onebrc.util;
 
+import java.math.BigInteger;
+
 public class MathUtil
 {
     /**
@@ -72,6 +74,17 @@ public class MathUtil
         return count + "/" + round(min / 10d) + "/" + round(mean) + "/" + round(max / 10d);
     }
 
+    /**
+     * Standard formatter for values stored as int with the given number of decimal digits,
+     * the same as {@link #toStringFromInteger(long, long, int, int)} for one digit.
+     */
+    public static String toStringFromDecimals(long sum, long count, int min, int max, int decimals)
+    {
+        final double scale = Math.pow(10, decimals);
+        final double mean = sum / scale / count;
+        return count + "/" + round(min / scale) + "/" + round(mean) + "/" + round(max / scale);
+    }
+
     /**
      * Standard formatter to ensure we get the same everywhere. We assume that we
      * store doubles as int with one decimal digit precision.
@@ -99,4 +112,30 @@ public class MathUtil
     {
         return count + "/" + round(min) + "/" + round(mean) + "/" + round(max);
     }
+
+    /**
+     * Population variance of values stored as int with one decimal digit precision, from
+     * their sum and their sum of squares. The numerator is calculated exactly, it does not fit
+     * into a long for a billion rows. BigInteger on purpose, this runs once per station for
+     * the output, a cold path, Math.multiplyHigh would not buy us anything measurable.
+     */
+    public static double variance(long sum, long sumOfSquares, long count)
+    {
+        final BigInteger n = BigInteger.valueOf(count);
+        final BigInteger numerator = n.multiply(BigInteger.valueOf(sumOfSquares))
+                .subtract(BigInteger.valueOf(sum).pow(2));
+
+        // count^2 for the two means and 100 for the decimal digit squared
+        return numerator.doubleValue() / ((double) count * (double) count * 100d);
+    }
+
+    /**
+     * Standard formatter extended by variance and standard deviation. We assume that we
+     * store doubles as int with one decimal digit precision.
+     */
+    public static String toStringFromInteger(long sum, long sumOfSquares, long count, int min, int max)
+    {
+        final double variance = variance(sum, sumOfSquares, count);
+        return toStringFromInteger(sum, count, min, max) + "/" + round(variance) + "/" + round(Math.sqrt(variance));
+    }
 }
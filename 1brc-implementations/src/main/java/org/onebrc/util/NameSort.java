@@ -0,0 +1,220 @@
+package org.onebrc.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts station names as UTF-8 bytes, no String per name and no decoding. An MSD radix
+ * sort, one pass per byte position, the buckets of a pass are sorted independently and
+ * in parallel when there are enough names.
+ *
+ * Order: The result has to be the order of the TreeMap of Strings, that is UTF-16 code
+ * units. UTF-8 bytes sort by code point, and that is the same except for one spot. The
+ * characters U+E000 to U+FFFF (lead bytes 0xEE and 0xEF) come after the surrogates in
+ * UTF-16, so after everything above U+FFFF (lead bytes 0xF0 to 0xF4). We just rank these
+ * lead bytes differently. Continuation bytes are never compared to lead bytes, because
+ * names in the same bucket share the prefix, so the ranking can be a simple table.
+ */
+public final class NameSort
+{
+    // below that, insertion sort is faster than counting
+    private static final int INSERTION_THRESHOLD = 32;
+    // buckets larger than that are sorted in their own task
+    private static final int PARALLEL_THRESHOLD = 64 * 1024;
+
+    // 0 is the end of the name, bytes are 1 to 256
+    private static final int BUCKETS = 257;
+    private static final int[] RANK = new int[256];
+
+    static
+    {
+        for (int b = 0; b < 256; b++)
+        {
+            RANK[b] = b + 1;
+        }
+        // supplementary first, then the top of the BMP
+        for (int b = 0xF0; b <= 0xF4; b++)
+        {
+            RANK[b] = b - 2 + 1;
+        }
+        RANK[0xEE] = 0xF3 + 1;
+        RANK[0xEF] = 0xF4 + 1;
+    }
+
+    private NameSort()
+    {
+    }
+
+    /**
+     * The rank of the byte at the position, 0 when the name is shorter
+     */
+    private static int key(final byte[][] data, final int[] offsets, final int[] lengths, final int i, final int depth)
+    {
+        return depth < lengths[i] ? RANK[data[i][offsets[i] + depth] & 0xFF] : 0;
+    }
+
+    /**
+     * Compares two names in the order of their Strings
+     */
+    public static int compare(final byte[] a, final int aOffset, final int aLength,
+            final byte[] b, final int bOffset, final int bLength)
+    {
+        final int i = Arrays.mismatch(a, aOffset, aOffset + aLength, b, bOffset, bOffset + bLength);
+        if (i < 0)
+        {
+            return 0;
+        }
+        if (i >= aLength || i >= bLength)
+        {
+            return aLength - bLength;
+        }
+        return RANK[a[aOffset + i] & 0xFF] - RANK[b[bOffset + i] & 0xFF];
+    }
+
+    /**
+     * Sort names
+     *
+     * @param data the arrays holding the names, can be the same array for all
+     * @param offsets where each name starts
+     * @param lengths the length of each name in bytes
+     * @return the indexes of the names in order
+     */
+    public static int[] sort(final byte[][] data, final int[] offsets, final int[] lengths)
+    {
+        final int n = lengths.length;
+        final int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            order[i] = i;
+        }
+        final int[] temp = new int[n];
+
+        if (n >= PARALLEL_THRESHOLD)
+        {
+            ForkJoinPool.commonPool().invoke(new SortTask(data, offsets, lengths, order, temp, 0, n, 0));
+        }
+        else
+        {
+            sort(data, offsets, lengths, order, temp, 0, n, 0, null);
+        }
+
+        return order;
+    }
+
+    /**
+     * Sort order[from, to) by the bytes from depth on, all of them share the bytes before
+     *
+     * @param tasks where to put the large buckets for parallel sorting, null to do it all here
+     */
+    private static void sort(final byte[][] data, final int[] offsets, final int[] lengths,
+            final int[] order, final int[] temp, final int from, final int to, final int depth,
+            final List<SortTask> tasks)
+    {
+        if (to - from < INSERTION_THRESHOLD)
+        {
+            insertionSort(data, offsets, lengths, order, from, to, depth);
+            return;
+        }
+
+        // count
+        final int[] count = new int[BUCKETS + 1];
+        for (int i = from; i < to; i++)
+        {
+            count[key(data, offsets, lengths, order[i], depth) + 1]++;
+        }
+        // where the buckets start
+        for (int b = 0; b < BUCKETS; b++)
+        {
+            count[b + 1] += count[b];
+        }
+        // distribute and copy back
+        final int[] start = count.clone();
+        for (int i = from; i < to; i++)
+        {
+            final int o = order[i];
+            temp[from + start[key(data, offsets, lengths, o, depth)]++] = o;
+        }
+        System.arraycopy(temp, from, order, from, to - from);
+
+        // bucket 0 is done, these names ended here and are all the same
+        for (int b = 1; b < BUCKETS; b++)
+        {
+            final int bFrom = from + count[b];
+            final int bTo = from + count[b + 1];
+            if (bTo - bFrom > 1)
+            {
+                if (tasks != null && bTo - bFrom >= PARALLEL_THRESHOLD)
+                {
+                    tasks.add(new SortTask(data, offsets, lengths, order, temp, bFrom, bTo, depth + 1));
+                }
+                else
+                {
+                    sort(data, offsets, lengths, order, temp, bFrom, bTo, depth + 1, null);
+                }
+            }
+        }
+    }
+
+    private static void insertionSort(final byte[][] data, final int[] offsets, final int[] lengths,
+            final int[] order, final int from, final int to, final int depth)
+    {
+        for (int i = from + 1; i < to; i++)
+        {
+            final int o = order[i];
+            int j = i - 1;
+            while (j >= from && compare(data, offsets, lengths, order[j], o, depth) > 0)
+            {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = o;
+        }
+    }
+
+    private static int compare(final byte[][] data, final int[] offsets, final int[] lengths, final int a, final int b, final int depth)
+    {
+        final int da = Math.min(depth, lengths[a]);
+        final int db = Math.min(depth, lengths[b]);
+        return compare(data[a], offsets[a] + da, lengths[a] - da, data[b], offsets[b] + db, lengths[b] - db);
+    }
+
+    /**
+     * A bucket sorted in parallel, its large buckets become tasks again
+     */
+    @SuppressWarnings("serial")
+    private static class SortTask extends RecursiveAction
+    {
+        private final byte[][] data;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final int[] order;
+        private final int[] temp;
+        private final int from;
+        private final int to;
+        private final int depth;
+
+        SortTask(final byte[][] data, final int[] offsets, final int[] lengths,
+                final int[] order, final int[] temp, final int from, final int to, final int depth)
+        {
+            this.data = data;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.order = order;
+            this.temp = temp;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute()
+        {
+            final var tasks = new ArrayList<SortTask>();
+            sort(this.data, this.offsets, this.lengths, this.order, this.temp, this.from, this.to, this.depth, tasks);
+            invokeAll(tasks);
+        }
+    }
+}
@@ -3,32 +3,88 @@ package org.onebrc.util;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.file.Path;
 import java.util.Arrays;
 
 public class PositionableByteReader implements Closeable
 {
     private final long to;
     private RandomAccessFile raf;
+    private DirectFileReader direct;
     private final Line line = new Line();
+    private final LineView view = new LineView();
     
     // Buffering fields
     private static final int BUFFER_SIZE = 81920;
-    private final byte[] buffer = new byte[BUFFER_SIZE];
+    // file reads are aligned to this to get full pages from the OS
+    private static final int READ_ALIGNMENT = 4096;
+    // two extra bytes for the ; and \n sentinels of the bulk api
+    private final byte[] buffer = new byte[BUFFER_SIZE + 2];
     private int bufferPos = 0;
     private int bufferLimit = 0;
     private long currentPos; // Tracks our logical position in the file
+    private long filePos; // Where the next read from the file starts
+    private boolean eof = false;
+    // the sentinel and what readDelimitedLineView looks for
+    private final byte delimiter;
 
     public PositionableByteReader(String filePath, long from, long to) throws IOException
+    {
+        this(filePath, from, to, false);
+    }
+
+    /**
+     * @param directIO read with O_DIRECT and hence bypass the page cache, see {@link DirectFileReader}
+     */
+    public PositionableByteReader(String filePath, long from, long to, boolean directIO) throws IOException
+    {
+        this(filePath, from, to, directIO, from > 0);
+    }
+
+    /**
+     * Read an exact chunk from the {@link ChunkSplitter}. It starts at a line start, so nothing
+     * is skipped, and it ends with a full line, so we stop exactly at its end.
+     */
+    public PositionableByteReader(String filePath, ChunkSplitter.Chunk chunk, boolean directIO) throws IOException
+    {
+        this(filePath, chunk.start(), chunk.end(), directIO, false, (byte) ';');
+    }
+
+    /**
+     * A chunk of a file with another delimiter than ;, read it with {@link #readDelimitedLineView()}
+     */
+    public PositionableByteReader(String filePath, ChunkSplitter.Chunk chunk, boolean directIO, byte delimiter) throws IOException
+    {
+        this(filePath, chunk.start(), chunk.end(), directIO, false, delimiter);
+    }
+
+    private PositionableByteReader(String filePath, long from, long to, boolean directIO, boolean skipFirstLine) throws IOException
+    {
+        this(filePath, from, to, directIO, skipFirstLine, (byte) ';');
+    }
+
+    private PositionableByteReader(String filePath, long from, long to, boolean directIO, boolean skipFirstLine, byte delimiter) throws IOException
     {
         this.to = to;
-        this.raf = new RandomAccessFile(filePath, "r");
+        this.delimiter = delimiter;
 
         // position
-        this.raf.seek(from);
+        if (directIO)
+        {
+            // we don't know how long the last line is, so the reader gets the rest of the
+            // file and will at most read its read ahead past our limit
+            this.direct = new DirectFileReader(Path.of(filePath), from, Long.MAX_VALUE);
+        }
+        else
+        {
+            this.raf = new RandomAccessFile(filePath, "r");
+            this.raf.seek(from);
+        }
         this.currentPos = from;
+        this.filePos = from;
         
         // if we are not from 0, we read the first "half line" and throw it away
-        if (from > 0)
+        if (skipFirstLine)
         {
             // We use our own buffered read method here instead of raf.readLine()
             // so our buffer and logical pointer (currentPos) stay perfectly synchronized.
@@ -44,10 +100,7 @@ public class PositionableByteReader implements Closeable
         // If we have consumed all bytes in our buffer, fetch the next chunk
         if (bufferPos >= bufferLimit)
         {
-            bufferLimit = raf.read(buffer);
-            bufferPos = 0;
-            
-            if (bufferLimit == -1)
+            if (fillBuffer() == -1)
             {
                 return -1; // EOF reached
             }
@@ -77,6 +130,177 @@ public class PositionableByteReader implements Closeable
         }
     }
 
+    /**
+     * Moves the unread rest of the buffer to the front and reads as much as fits
+     * behind it. The read is cut to end on an aligned file position, so that apart from
+     * the very first one, all reads are full and aligned pages. 
+     * 
+     * @return the number of bytes read or -1 when EOF
+     */
+    private int fillBuffer() throws IOException
+    {
+        final int remaining = Math.max(0, bufferLimit - bufferPos);
+        System.arraycopy(buffer, bufferPos, buffer, 0, remaining);
+        bufferPos = 0;
+        bufferLimit = remaining;
+
+        int length = BUFFER_SIZE - remaining;
+        final long alignedEnd = (filePos + length) & -READ_ALIGNMENT;
+        if (alignedEnd > filePos)
+        {
+            length = (int) (alignedEnd - filePos);
+        }
+
+        // the direct reader does its aligned reads on its own
+        final int read = direct == null ? raf.read(buffer, remaining, length) : direct.read(buffer, remaining, length);
+        if (read == -1)
+        {
+            eof = true;
+        }
+        else
+        {
+            filePos += read;
+            bufferLimit += read;
+        }
+
+        // our sentinels, so the bulk scan never needs a limit check
+        buffer[bufferLimit] = delimiter;
+        buffer[bufferLimit + 1] = '\n';
+
+        return read;
+    }
+
+    /**
+     * Bulk version of {@link #readln()}. It does not copy anything, it just returns
+     * a view of the next line that points directly into our internal buffer. The view
+     * is only valid till the next call, because a refill moves the data around.
+     * 
+     * The scan itself does not check any limits, we place a ; and a \n behind the
+     * valid data instead. If we hit those, the line is incomplete and we refill
+     * and scan again, that happens once per buffer only.
+     * 
+     * @return the view of the next line or null when EOF or our limit is reached
+     * @throws IOException
+     */
+    public LineView readLineView() throws IOException
+    {
+        // Check our logical position against the limit
+        if (this.currentPos >= to) 
+        {
+            return null;
+        }
+
+        while (true)
+        {
+            if (this.bufferPos >= this.bufferLimit && (eof || fillBuffer() == -1))
+            {
+                return null;
+            }
+            
+            final byte[] b = this.buffer;
+            final int start = this.bufferPos;
+            
+            // read till semicolon and hash on the go
+            int hash = 0;
+            int i = start;
+            byte c;
+            while ((c = b[i]) != ';')
+            {
+                hash = hash * 31 + c;
+                i++;
+            }
+            final int semicolon = i;
+
+            // read the rest
+            while (b[++i] != '\n')
+            {
+            }
+            
+            // are we within the valid data, the sentinels don't count
+            if (i < this.bufferLimit || (eof && start < this.bufferLimit))
+            {
+                final int end = Math.min(i, this.bufferLimit);
+                
+                view.bytes = b;
+                view.start = start;
+                view.semicolon = Math.min(semicolon, end);
+                view.end = end;
+                view.cityHash = hash;
+
+                this.bufferPos = end + 1;
+                this.currentPos += end + 1 - start;
+                
+                return view;
+            }
+            else if (!eof && fillBuffer() == 0)
+            {
+                throw new IOException("Line does not fit into the buffer");
+            }
+        }
+    }
+
+    /**
+     * {@link #readLineView()} for the delimiter given to the constructor, the view's
+     * semicolon is where the delimiter is. A separate copy, so the ; of the common case
+     * stays a constant in the other one.
+     */
+    public LineView readDelimitedLineView() throws IOException
+    {
+        if (this.currentPos >= to) 
+        {
+            return null;
+        }
+
+        final byte d = this.delimiter;
+        while (true)
+        {
+            if (this.bufferPos >= this.bufferLimit && (eof || fillBuffer() == -1))
+            {
+                return null;
+            }
+            
+            final byte[] b = this.buffer;
+            final int start = this.bufferPos;
+            
+            // read till the delimiter and hash on the go
+            int hash = 0;
+            int i = start;
+            byte c;
+            while ((c = b[i]) != d)
+            {
+                hash = hash * 31 + c;
+                i++;
+            }
+            final int semicolon = i;
+
+            // read the rest
+            while (b[++i] != '\n')
+            {
+            }
+            
+            // are we within the valid data, the sentinels don't count
+            if (i < this.bufferLimit || (eof && start < this.bufferLimit))
+            {
+                final int end = Math.min(i, this.bufferLimit);
+                
+                view.bytes = b;
+                view.start = start;
+                view.semicolon = Math.min(semicolon, end);
+                view.end = end;
+                view.cityHash = hash;
+
+                this.bufferPos = end + 1;
+                this.currentPos += end + 1 - start;
+                
+                return view;
+            }
+            else if (!eof && fillBuffer() == 0)
+            {
+                throw new IOException("Line does not fit into the buffer");
+            }
+        }
+    }
+
     /**
      * Skip over the first things till \n
      */
@@ -152,7 +376,38 @@ public class PositionableByteReader implements Closeable
     @Override
     public void close() throws IOException 
     {
-        raf.close();
+        if (direct != null)
+        {
+            direct.close();
+        }
+        else
+        {
+            raf.close();
+        }
+    }
+    
+    /**
+     * A line as positions in the reader's buffer, nothing is copied. The city is
+     * [start, semicolon) and the temperature is [semicolon + 1, end).
+     */
+    public static class LineView
+    {
+        public byte[] bytes;
+        public int start = 0;
+        public int semicolon = 0;
+        public int end = 0;
+        public int cityHash = 0;
+        public int temperature = 0;
+        
+        public int cityLength()
+        {
+            return semicolon - start;
+        }
+        
+        public String toString()
+        {
+            return new String(bytes, start, semicolon - start);
+        }
     }
     
     public static class Line
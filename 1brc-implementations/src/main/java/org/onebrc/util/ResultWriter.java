@@ -0,0 +1,184 @@
+package org.onebrc.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the result straight from the station table into a channel, no TreeMap and no
+ * String per station. The engine hands in the stations ordered by name, compared as unsigned
+ * UTF-8 bytes. That is the same order as the TreeMap of Strings for everything in the
+ * Basic Multilingual Plane, {@link NameSort} gets the rest right too.
+ *
+ * Temperatures come as tenth-degree integers and are formatted the same way as
+ * {@link MathUtil#toStringFromInteger(long, long, int, int)} does it, just without
+ * the detour via a String.
+ *
+ * Close writes what is left but does not close the channel, that belongs to the caller.
+ */
+public abstract class ResultWriter implements Closeable, StationSink
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    protected final ByteBuffer buffer;
+
+    protected ResultWriter(final WritableByteChannel channel)
+    {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Get the writer for a format
+     *
+     * @param format text, json, csv or bin
+     * @param channel where to write to
+     * @return the writer
+     */
+    public static ResultWriter of(final String format, final WritableByteChannel channel)
+    {
+        return switch (format)
+        {
+            case "text" -> new TextResultWriter(channel);
+            case "json" -> new JsonResultWriter(channel);
+            case "csv" -> new CsvResultWriter(channel);
+            case "bin" -> new BinaryResultWriter(channel);
+            default -> throw new IllegalArgumentException("Unknown format " + format + ", use text, json, csv or bin");
+        };
+    }
+
+    /**
+     * Stations have to come in order, see above
+     */
+    @Override
+    public abstract void station(byte[] name, int offset, int length, int min, int max, long total, long count)
+            throws IOException;
+
+    /**
+     * Called once before the buffer is written the last time
+     */
+    protected void end() throws IOException
+    {
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        end();
+        flush();
+    }
+
+    /**
+     * Make sure we can put that many bytes into the buffer
+     */
+    protected void ensure(final int bytes) throws IOException
+    {
+        if (this.buffer.remaining() < bytes)
+        {
+            flush();
+        }
+    }
+
+    protected void flush() throws IOException
+    {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining())
+        {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Put bytes, as long as they are, station names might be long
+     */
+    protected void put(final byte[] data, final int offset, final int length) throws IOException
+    {
+        int pos = offset;
+        final int end = offset + length;
+        while (pos < end)
+        {
+            ensure(1);
+            final int n = Math.min(end - pos, this.buffer.remaining());
+            this.buffer.put(data, pos, n);
+            pos += n;
+        }
+    }
+
+    protected void put(final byte b) throws IOException
+    {
+        ensure(1);
+        this.buffer.put(b);
+    }
+
+    /**
+     * Writes a temperature given in tenth-degree, the same as MathUtil.round(value / 10d)
+     */
+    protected void putTenths(final int value) throws IOException
+    {
+        putThousandths(Math.round(value / 10d * 1000.0d));
+    }
+
+    /**
+     * Writes the mean, the same as MathUtil.round(total / 10d / count)
+     */
+    protected void putMean(final long total, final long count) throws IOException
+    {
+        putThousandths(Math.round((double) (total / 10d) / (double) count * 1000.0d));
+    }
+
+    /**
+     * Writes value / 1000 the way Double.toString does it for our range, at least one
+     * decimal digit and no trailing zeros otherwise
+     */
+    protected void putThousandths(final long value) throws IOException
+    {
+        ensure(24);
+
+        long v = value;
+        if (v < 0)
+        {
+            this.buffer.put((byte) '-');
+            v = -v;
+        }
+
+        putLong(v / 1000);
+        this.buffer.put((byte) '.');
+
+        int fraction = (int) (v % 1000);
+        this.buffer.put((byte) ('0' + fraction / 100));
+        fraction %= 100;
+        if (fraction != 0)
+        {
+            this.buffer.put((byte) ('0' + fraction / 10));
+            fraction %= 10;
+            if (fraction != 0)
+            {
+                this.buffer.put((byte) ('0' + fraction));
+            }
+        }
+    }
+
+    /**
+     * Positive numbers only, the caller ensured the space
+     */
+    protected void putLong(final long value)
+    {
+        if (value >= 10)
+        {
+            putLong(value / 10);
+        }
+        this.buffer.put((byte) ('0' + value % 10));
+    }
+
+    /**
+     * Any long, ensures the space itself
+     */
+    protected void putCount(final long value) throws IOException
+    {
+        ensure(20);
+        putLong(value);
+    }
+}
@@ -0,0 +1,167 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A station to group mapping, such as station to country or region. One mapping per line
+ * in the same style as the measurements, station;group, UTF-8. Empty lines and lines
+ * starting with # are ignored.
+ *
+ * Groups are numbered, so an engine resolves a station once when it enters the station
+ * table, stores the number in the slot, and rolls everything up at the end by station
+ * and not by row. Stations without a group get {@link #NONE}.
+ */
+public class StationGroups
+{
+    public static final int NONE = -1;
+
+    private final Map<String, Integer> stationToGroup;
+    private final List<String> groups;
+
+    private StationGroups(final Map<String, Integer> stationToGroup, final List<String> groups)
+    {
+        this.stationToGroup = stationToGroup;
+        this.groups = groups;
+    }
+
+    /**
+     * Reads the mapping file
+     *
+     * @param path the file
+     * @return the mapping
+     * @throws IOException when the file cannot be read or a line has no ;
+     */
+    public static StationGroups load(final Path path) throws IOException
+    {
+        final Map<String, Integer> stationToGroup = new HashMap<>();
+        final Map<String, Integer> groupIds = new HashMap<>();
+        final List<String> groups = new ArrayList<>();
+
+        int lineNo = 0;
+        for (var line : Files.readAllLines(path, StandardCharsets.UTF_8))
+        {
+            lineNo++;
+            if (line.isBlank() || line.startsWith("#"))
+            {
+                continue;
+            }
+
+            final int pos = line.lastIndexOf(';');
+            if (pos <= 0)
+            {
+                throw new IOException(String.format("Line %d of %s is not station;group: %s", lineNo, path, line));
+            }
+
+            final String group = line.substring(pos + 1);
+            final int id = groupIds.computeIfAbsent(group, g ->
+            {
+                groups.add(g);
+                return groups.size() - 1;
+            });
+            stationToGroup.put(line.substring(0, pos), id);
+        }
+
+        return new StationGroups(stationToGroup, groups);
+    }
+
+    /**
+     * The group of a station, not meant for the hot loop
+     *
+     * @param station the UTF-8 bytes of the station name
+     * @return the group number or NONE
+     */
+    public int groupOf(final byte[] station)
+    {
+        return groupOf(new String(station, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The group of a station, not meant for the hot loop
+     *
+     * @param station the station name
+     * @return the group number or NONE
+     */
+    public int groupOf(final String station)
+    {
+        return this.stationToGroup.getOrDefault(station, NONE);
+    }
+
+    /**
+     * The name of a group
+     */
+    public String name(final int group)
+    {
+        return this.groups.get(group);
+    }
+
+    /**
+     * How many groups we have, the numbers go from 0 to size - 1
+     */
+    public int size()
+    {
+        return this.groups.size();
+    }
+
+    /**
+     * Accumulates per group what the engines accumulate per station. You add stations,
+     * not rows, so this is O(stations).
+     */
+    public class Rollup
+    {
+        private final int[] min = new int[groups.size()];
+        private final int[] max = new int[groups.size()];
+        private final long[] total = new long[groups.size()];
+        private final long[] count = new long[groups.size()];
+
+        /**
+         * Add the accumulated values of a station to its group
+         */
+        public void add(final int group, final int min, final int max, final long total, final long count)
+        {
+            if (group == NONE || count == 0)
+            {
+                return;
+            }
+
+            if (this.count[group] == 0)
+            {
+                this.min[group] = min;
+                this.max[group] = max;
+            }
+            else
+            {
+                this.min[group] = Math.min(this.min[group], min);
+                this.max[group] = Math.max(this.max[group], max);
+            }
+            this.total[group] += total;
+            this.count[group] += count;
+        }
+
+        /**
+         * The same format as the stations, ordered by group name, groups without
+         * any data are left out
+         */
+        @Override
+        public String toString()
+        {
+            final var map = new TreeMap<String, String>();
+            for (int i = 0; i < this.count.length; i++)
+            {
+                if (this.count[i] > 0)
+                {
+                    map.put(name(i), MathUtil.toStringFromInteger(this.total[i], this.count[i], this.min[i], this.max[i]));
+                }
+            }
+
+            return map.toString();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+
+/**
+ * Anything that takes the aggregated values of a station, such as a {@link ResultWriter}
+ * or a station table that gets a cached result back.
+ */
+@FunctionalInterface
+public interface StationSink
+{
+    /**
+     * Take a station
+     *
+     * @param name the array holding the UTF-8 name
+     * @param offset where the name starts
+     * @param length the length of the name in bytes
+     * @param min the minimum in tenth-degree
+     * @param max the maximum in tenth-degree
+     * @param total the sum in tenth-degree
+     * @param count the number of measurements
+     * @throws IOException
+     */
+    void station(byte[] name, int offset, int length, int min, int max, long total, long count) throws IOException;
+}
@@ -0,0 +1,337 @@
+package org.onebrc.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * External aggregation for more stations than fit into memory. Full station tables are
+ * spilled to disk, partitioned by a hash of the name, so every station of all spills ends
+ * up in the same partition file. At the end, one partition at a time is read back into a
+ * table, aggregated and written sorted into a run file. The runs don't share any station,
+ * so a simple k-way merge of them gives us the complete and ordered result.
+ *
+ * Memory: One partition table at a time plus a read buffer per run. With 2^bits partitions,
+ * a partition holds about stations / 2^bits stations, so pick the bits for the expected
+ * stations and the budget. When a partition still does not fit into the budget given to
+ * merge, because the data is skewed or just larger than expected, it is split again by the
+ * next bits of the hash, as often as needed. Names with the very same hash cannot be split,
+ * such a partition is aggregated no matter what, same for a partition of just a few thousand
+ * stations, a table is never smaller than one arena page.
+ *
+ * Every spill appends a complete binary result to each partition file, see
+ * {@link BinaryResultWriter}. Spills are serialized, they are rare and disk bound anyway.
+ *
+ * All files go into a fresh temp directory that close removes.
+ */
+public class StationSpiller implements Closeable
+{
+    // the fan out when a partition has to be split again
+    private static final int SPLIT_BITS = 4;
+    // how often we look at the memory of a partition table
+    private static final int CHECK_MASK = 0xFFF;
+
+    private final int bits;
+    private final Path directory;
+    private final Path[] partitions;
+
+    private int spills;
+    private int runs;
+    private int files;
+
+    /**
+     * @param parent where to create our temp directory, null for the default temp directory
+     * @param bits the number of partitions as power of two
+     */
+    public StationSpiller(final Path parent, final int bits) throws IOException
+    {
+        if (bits < 0 || bits > 16)
+        {
+            throw new IllegalArgumentException("Partition bits must be 0 to 16, was " + bits);
+        }
+
+        this.bits = bits;
+        this.directory = parent == null ? Files.createTempDirectory("1brc-spill") : Files.createTempDirectory(parent, "1brc-spill");
+        this.partitions = new Path[1 << bits];
+        for (int p = 0; p < this.partitions.length; p++)
+        {
+            this.partitions[p] = this.directory.resolve("partition-" + p + ".bin");
+        }
+    }
+
+    /**
+     * The reader hash, we need it when we put the stations into a table again
+     */
+    private static int hash(final byte[] name, final int offset, final int length)
+    {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            h = h * 31 + name[i];
+        }
+        return h;
+    }
+
+    /**
+     * The top bits of the spread hash, the tables use the low bits, so a partition
+     * still spreads nicely over its table
+     */
+    private int partition(final int hash)
+    {
+        return partition(hash, 0, this.bits);
+    }
+
+    /**
+     * width bits of the spread hash after skipping the top shift bits, that is the
+     * partition of a split
+     */
+    private static int partition(final int hash, final int shift, final int width)
+    {
+        return width == 0 ? 0 : ((hash * 0x9E3779B9) << shift) >>> (32 - width);
+    }
+
+    /**
+     * Write all stations of the table to the partition files, the caller drops the table
+     * afterwards
+     */
+    public synchronized void spill(final IncrementalStationTable table) throws IOException
+    {
+        final FileChannel[] channels = new FileChannel[this.partitions.length];
+        final BinaryResultWriter[] writers = new BinaryResultWriter[this.partitions.length];
+        try
+        {
+            for (int p = 0; p < channels.length; p++)
+            {
+                channels[p] = FileChannel.open(this.partitions[p],
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                writers[p] = new BinaryResultWriter(channels[p]);
+            }
+
+            table.forEach((name, offset, length, min, max, total, count) ->
+                writers[partition(hash(name, offset, length))].station(name, offset, length, min, max, total, count));
+
+            for (var w : writers)
+            {
+                w.close();
+            }
+        }
+        finally
+        {
+            for (var c : channels)
+            {
+                if (c != null)
+                {
+                    c.close();
+                }
+            }
+        }
+
+        this.spills++;
+    }
+
+    /**
+     * How often we spilled, 0 means the caller can do it all in memory
+     */
+    public synchronized int spills()
+    {
+        return this.spills;
+    }
+
+    /**
+     * How many sorted runs the last merge had, one per partition plus the ones of the splits,
+     * mainly for testing
+     */
+    public synchronized int runs()
+    {
+        return this.runs;
+    }
+
+    /**
+     * Aggregate one partition after the other and hand all stations ordered by name to the sink
+     */
+    public synchronized void merge(final StationSink sink) throws IOException
+    {
+        merge(sink, Long.MAX_VALUE);
+    }
+
+    /**
+     * Aggregate one partition after the other and hand all stations ordered by name to the sink,
+     * a partition that gets over the budget is split and its parts are aggregated one by one
+     *
+     * @param sink where the stations go
+     * @param budget the memory a partition table may take, see {@link IncrementalStationTable#memory()}
+     */
+    public synchronized void merge(final StationSink sink, final long budget) throws IOException
+    {
+        // aggregate and sort every partition into one or more runs
+        final List<Path> runs = new ArrayList<>();
+        for (var partition : this.partitions)
+        {
+            aggregate(partition, this.bits, budget, runs);
+        }
+        this.runs = runs.size();
+
+        // k-way merge, the runs are disjoint, so there is nothing to combine
+        final PriorityQueue<BinaryResultReader> queue = new PriorityQueue<>(Math.max(1, runs.size()),
+                (a, b) -> NameSort.compare(a.name, 0, a.length, b.name, 0, b.length));
+        try
+        {
+            for (var run : runs)
+            {
+                final var reader = new BinaryResultReader(FileChannel.open(run, StandardOpenOption.READ));
+                if (reader.next())
+                {
+                    queue.add(reader);
+                }
+                else
+                {
+                    reader.close();
+                }
+            }
+
+            BinaryResultReader reader;
+            while ((reader = queue.poll()) != null)
+            {
+                sink.station(reader.name, 0, reader.length, reader.min, reader.max, reader.total, reader.count);
+                if (reader.next())
+                {
+                    queue.add(reader);
+                }
+                else
+                {
+                    reader.close();
+                }
+            }
+        }
+        finally
+        {
+            for (var r : queue)
+            {
+                r.close();
+            }
+        }
+    }
+
+    /**
+     * Aggregate a partition into a sorted run, or split it by the next bits of the hash and
+     * aggregate the parts, when it does not fit
+     *
+     * @param shift the hash bits already used to get to this partition
+     */
+    private void aggregate(final Path partition, final int shift, final long budget, final List<Path> runs) throws IOException
+    {
+        if (!Files.exists(partition))
+        {
+            return;
+        }
+
+        final boolean splittable = shift + SPLIT_BITS <= 32;
+        final IncrementalStationTable table = new IncrementalStationTable(1024);
+        boolean fits = true;
+        int stations = 0;
+        try (var reader = new BinaryResultReader(FileChannel.open(partition, StandardOpenOption.READ)))
+        {
+            while (reader.next())
+            {
+                // the table counts in an int, rather fail than write a wrong count
+                table.add(reader.name, 0, reader.length, hash(reader.name, 0, reader.length),
+                        reader.min, reader.max, reader.total, Math.toIntExact(reader.count));
+
+                if (splittable && (++stations & CHECK_MASK) == 0 && table.memory() > budget)
+                {
+                    fits = false;
+                    break;
+                }
+            }
+        }
+
+        // a table has a fixed size of an arena page, below a few thousand stations splitting
+        // does not get us anything
+        if (fits && (!splittable || stations <= CHECK_MASK || table.memory() <= budget))
+        {
+            final Path run = this.directory.resolve("run-" + runs.size() + ".bin");
+            try (var channel = FileChannel.open(run, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 var writer = new BinaryResultWriter(channel))
+            {
+                table.forEachOrdered(writer);
+            }
+            runs.add(run);
+
+            // we don't need it anymore, give the disk space back early
+            Files.delete(partition);
+            return;
+        }
+
+        // too large, drop what we have and split
+        final Path[] parts = split(partition, shift);
+        Files.delete(partition);
+        for (var part : parts)
+        {
+            aggregate(part, shift + SPLIT_BITS, budget, runs);
+        }
+    }
+
+    /**
+     * Distribute the stations of a partition over 2^SPLIT_BITS new ones
+     */
+    private Path[] split(final Path partition, final int shift) throws IOException
+    {
+        final Path[] parts = new Path[1 << SPLIT_BITS];
+        final FileChannel[] channels = new FileChannel[parts.length];
+        final BinaryResultWriter[] writers = new BinaryResultWriter[parts.length];
+        try (var reader = new BinaryResultReader(FileChannel.open(partition, StandardOpenOption.READ)))
+        {
+            for (int p = 0; p < parts.length; p++)
+            {
+                parts[p] = this.directory.resolve("split-" + this.files++ + ".bin");
+                channels[p] = FileChannel.open(parts[p], StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                writers[p] = new BinaryResultWriter(channels[p]);
+            }
+
+            while (reader.next())
+            {
+                writers[partition(hash(reader.name, 0, reader.length), shift, SPLIT_BITS)]
+                        .station(reader.name, 0, reader.length, reader.min, reader.max, reader.total, reader.count);
+            }
+
+            for (var w : writers)
+            {
+                w.close();
+            }
+        }
+        finally
+        {
+            for (var c : channels)
+            {
+                if (c != null)
+                {
+                    c.close();
+                }
+            }
+        }
+
+        return parts;
+    }
+
+    /**
+     * Removes all our files
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try (var files = Files.list(this.directory))
+        {
+            for (var f : files.toList())
+            {
+                Files.deleteIfExists(f);
+            }
+        }
+        Files.deleteIfExists(this.directory);
+    }
+}
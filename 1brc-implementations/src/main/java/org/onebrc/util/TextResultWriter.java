@@ -0,0 +1,54 @@
+package org.onebrc.util;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The classic output, the same as the TreeMap toString of the engines:
+ * {Abha=123/-31.1/18.0/66.5, ...}
+ */
+public class TextResultWriter extends ResultWriter
+{
+    private boolean first = true;
+
+    public TextResultWriter(final WritableByteChannel channel)
+    {
+        super(channel);
+    }
+
+    @Override
+    public void station(final byte[] name, final int offset, final int length,
+            final int min, final int max, final long total, final long count) throws IOException
+    {
+        if (this.first)
+        {
+            put((byte) '{');
+            this.first = false;
+        }
+        else
+        {
+            put((byte) ',');
+            put((byte) ' ');
+        }
+
+        put(name, offset, length);
+        put((byte) '=');
+        putCount(count);
+        put((byte) '/');
+        putTenths(min);
+        put((byte) '/');
+        putMean(total, count);
+        put((byte) '/');
+        putTenths(max);
+    }
+
+    @Override
+    protected void end() throws IOException
+    {
+        if (this.first)
+        {
+            put((byte) '{');
+        }
+        put((byte) '}');
+    }
+}
@@ -0,0 +1,120 @@
+package org.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.AdaptiveBenchmark.Profile;
+import org.onebrc.again26.BRC001_Baseline;
+import org.onebrc.again26.BRC113_EqualsCityMismatchSimple;
+import org.onebrc.again26.BRC125_Refined_121;
+import org.onebrc.parallel.BRC083_ChunkSplitter;
+
+public class AdaptiveBenchmarkTest
+{
+    @TempDir
+    Path tempDir;
+
+    private Path write(final int stations, final int lines) throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++)
+        {
+            sb.append("Station").append(i % stations).append(";").append(i % 100).append(".5\n");
+        }
+        final Path file = tempDir.resolve("data-" + stations + ".txt");
+        Files.writeString(file, sb.toString(), StandardCharsets.UTF_8);
+
+        return file;
+    }
+
+    @Test
+    public void profileFewStations() throws IOException
+    {
+        final Path file = write(400, 100_000);
+        final Profile profile = AdaptiveBenchmark.profile(file.toString());
+
+        assertEquals(Files.size(file), profile.fileSize());
+        assertEquals(400, profile.distinctStations());
+        assertEquals(400, profile.estimatedStations());
+        assertEquals(10, profile.maxNameLength());
+    }
+
+    @Test
+    public void profileManyStations() throws IOException
+    {
+        // every line is a new station, we only see some of them
+        final Path file = write(1_000_000, 1_000_000);
+        final Profile profile = AdaptiveBenchmark.profile(file.toString());
+
+        assertEquals(profile.sampledLines(), profile.distinctStations());
+        assertTrue(profile.estimatedStations() > AdaptiveBenchmark.HASH_ONLY_LIMIT);
+    }
+
+    @Test
+    public void select()
+    {
+        final var engines = AdaptiveBenchmark.ENGINES;
+        final long large = AdaptiveBenchmark.PARALLEL_THRESHOLD;
+
+        // small file or a single thread
+        assertEquals(BRC125_Refined_121.class, AdaptiveBenchmark.select(new Profile(1000, 100, 10, 10, 10), 8, engines).engine());
+        assertEquals(BRC125_Refined_121.class, AdaptiveBenchmark.select(new Profile(large, 100, 10, 10, 10), 1, engines).engine());
+
+        // too many stations to trust the hash
+        assertEquals(BRC113_EqualsCityMismatchSimple.class, AdaptiveBenchmark.select(new Profile(1000, 100, 100, 50_000, 10), 8, engines).engine());
+
+        // large file
+        assertEquals(BRC083_ChunkSplitter.class, AdaptiveBenchmark.select(new Profile(large, 100, 10, 10, 10), 8, engines).engine());
+
+        // nothing parallel fits, take what works
+        final var single = List.of(engines.get(0));
+        assertEquals(BRC125_Refined_121.class, AdaptiveBenchmark.select(new Profile(large, 100, 10, 10, 10), 8, single).engine());
+
+        // long names, the parallel one is the only one that copes, small file or not
+        assertEquals(BRC125_Refined_121.class, AdaptiveBenchmark.select(new Profile(1000, 100, 10, 10, 200), 8, engines).engine());
+        assertEquals(BRC083_ChunkSplitter.class, AdaptiveBenchmark.select(new Profile(1000, 100, 10, 10, 3_000), 8, engines).engine());
+        assertEquals(BRC083_ChunkSplitter.class, AdaptiveBenchmark.select(new Profile(1000, 100, 10, 10, 3_000), 1, engines).engine());
+    }
+
+    /**
+     * Names of 500 to 3,000 bytes, profiled, routed and run, same result as the baseline
+     */
+    @Test
+    public void longNames() throws IOException
+    {
+        final Random r = new Random(42);
+        final List<String> names = new ArrayList<>();
+        // 21 of them, the counts are never a multiple of 8, no rounding ties in the baseline
+        for (int i = 0; i < 21; i++)
+        {
+            names.add(i + "x".repeat(500 + r.nextInt(2_500)));
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 21 * 95; i++)
+        {
+            sb.append(names.get(i % names.size())).append(';')
+                .append(String.format(Locale.ROOT, "%.1f", (r.nextInt(1999) - 999) / 10.0)).append('\n');
+        }
+        final Path file = tempDir.resolve("long-names.txt");
+        Files.writeString(file, sb.toString(), StandardCharsets.UTF_8);
+
+        final Profile profile = AdaptiveBenchmark.profile(file.toString());
+        assertTrue(profile.maxNameLength() >= 500, profile.toString());
+        assertEquals(BRC083_ChunkSplitter.class, AdaptiveBenchmark.select(profile, 1, AdaptiveBenchmark.ENGINES).engine());
+
+        final var adaptive = new AdaptiveBenchmark();
+        adaptive.setThreadCount(1);
+        assertEquals(new BRC001_Baseline().run(file.toString()), adaptive.run(file.toString()));
+    }
+}
@@ -0,0 +1,90 @@
+package org.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class AutoTunerTest
+{
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void threadCounts()
+    {
+        final var counts = AutoTuner.threadCounts();
+        
+        assertEquals(1, counts.get(0));
+        assertEquals(Runtime.getRuntime().availableProcessors(), counts.get(counts.size() - 1));
+    }
+
+    @Test
+    public void chunkSizes()
+    {
+        final long mb = 1024 * 1024;
+
+        // ignored, nothing to tune
+        assertEquals(List.of(0L), AutoTuner.chunkSizes(false, 64 * mb, 1));
+
+        // 64 MB for 4 threads, 4 chunks each at least
+        assertEquals(List.of(0L, mb, 4 * mb), AutoTuner.chunkSizes(true, 64 * mb, 4));
+        assertEquals(List.of(0L, mb, 4 * mb, 16 * mb), AutoTuner.chunkSizes(true, 64 * mb, 1));
+
+        // small sample, many threads
+        assertEquals(List.of(0L), AutoTuner.chunkSizes(true, 10 * mb, 8));
+    }
+
+    @Test
+    public void fingerprintIsStable()
+    {
+        assertEquals(AutoTuner.fingerprint(), AutoTuner.fingerprint());
+        assertEquals(16, AutoTuner.fingerprint().length());
+    }
+
+    /**
+     * The sample must only contain full lines from the file and several places of it
+     */
+    @Test
+    public void sample() throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10_000; i++)
+        {
+            sb.append("City").append(i).append(";12.3\n");
+        }
+        final Path file = tempDir.resolve("data.txt");
+        Files.writeString(file, sb.toString(), StandardCharsets.UTF_8);
+        final var lines = new HashSet<>(sb.toString().lines().toList());
+
+        // small files are their own sample
+        assertEquals(file, AutoTuner.sample(file.toString(), Files.size(file), Files.size(file)));
+
+        final Path sample = AutoTuner.sample(file.toString(), Files.size(file), 16_000);
+        try
+        {
+            assertNotEquals(file, sample);
+
+            final var sampled = Files.readAllLines(sample);
+            assertTrue(sampled.size() > 500 && sampled.size() < 2_000, String.valueOf(sampled.size()));
+            assertTrue(lines.containsAll(sampled));
+
+            // first and last piece are there
+            assertTrue(sampled.contains("City0;12.3"));
+            assertTrue(sampled.stream().anyMatch(l -> l.startsWith("City87")));
+        }
+        finally
+        {
+            Files.delete(sample);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package org.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assumptions.abort;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.again26.BRC001_Baseline;
+
+/**
+ * Runs every Benchmark against a set of small, nasty files and compares the result with
+ * BRC001_Baseline. Every implementation that is not marked with // ignore, the same hint
+ * benchmark.sh skips, gets its own test, so you see at once which one broke.
+ *
+ * The files cover one byte names, 100 byte names, UTF-8 names of all lengths, the extreme
+ * temperatures including -0.0, names with the same String hash, up to 10,000 stations, and
+ * a file of about 1.2 MB with long lines, so lines cross the typical buffer sizes. That
+ * file runs a second time with a small chunk size, so lines cross chunk edges too.
+ *
+ * Not all of our implementations print what the baseline prints, some print another format
+ * or nothing at all. These are listed in {@link #NOT_COMPARABLE} with the reason and are
+ * reported as aborted, as long as they still don't match the baseline on a plain file.
+ * The ones we know to break on the nasty files are listed in {@link #KNOWN_BROKEN} with
+ * the reason and are aborted too. Fix one, remove it from the list. Everything else has
+ * to match the baseline on all files, a new implementation included.
+ *
+ * The cache of BRC087 goes into our temp directory, so no run sees the one of another.
+ *
+ * The baseline rounds a double mean, an exact tie at the third decimal can go either way.
+ * A tie needs a count that is a multiple of 8, hence no station of ours has such a count.
+ *
+ * All of them together take about half a minute, run it before you keep a performance change:
+ * <pre>
+ * mvn test -Dtest=DifferentialTest
+ * </pre>
+ */
+public class DifferentialTest
+{
+    private static final Path SOURCES = Path.of("src/main/java");
+    private static final Pattern IGNORE = Pattern.compile("(?im)^\\s*//\\s*ignore");
+
+    private static final int THREADS = 3;
+    // odd on purpose, so chunks don't end on nice boundaries
+    private static final long SMALL_CHUNK_SIZE = 65_537;
+    private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+    // fixed, so a failure can be repeated
+    private static final long SEED = 42;
+
+    @TempDir
+    static Path tempDir;
+
+    // found by this test, the simple name and why
+    private static final Map<String, String> KNOWN_BROKEN = Map.of(
+            "BRC045_KeepChars", "loses stations when the set resizes",
+            "BRC047_IntOnly", "loses stations when the set resizes",
+            "BRC00_Claude2", "max starts at 0, wrong for stations with negative values only",
+            "BRC00_Gemini", "max starts at 0, wrong for stations with negative values only",
+            "BRC076_Bytes_ForkJoin_Full", "ArrayIndexOutOfBoundsException on 100 byte names",
+            "BRC077_Bytes_ForkJoin_1Level", "ArrayIndexOutOfBoundsException on 100 byte names",
+            "BRC080_Set", "ArrayIndexOutOfBoundsException on 100 byte names");
+
+    // don't print what the baseline prints, the simple name and why
+    private static final Map<String, String> NOT_COMPARABLE = new HashMap<>();
+    static
+    {
+        notComparable("the original format, no count and a one decimal mean",
+                "Baseline", "BaselineParallel");
+        notComparable("rounds the mean to one decimal",
+                "BRC01_BaselineMT", "BRC01_BaselineST");
+        notComparable("measures only part of the work, prints no stations",
+                "BRC000_Empty", "BRC00_Empty", "BRC002_BaselineFileOnly", "BRC003_BaselineFileAndSplit",
+                "BRC004_BaselineFileSplitMeasurements", "BRC015_Parallel_NoCollector", "BRC021_NoStreamFileOnly",
+                "BRC040_N_ConcurrentRead", "BRC048_VT_ChunkSize_10MB", "BRC075_Bytes_ConcurrentRead");
+        notComparable("prints the temperatures divided by 100",
+                "BRC08_GoIntST", "BRC09_NoMergeST", "BRC10_MutateST", "BRC11_SizedMapST", "BRC12_NewMapST",
+                "BRC13_HardcodedSetST", "BRC14a_ReadBytesBroken", "BRC14b_ReadBytesFixed", "BRC14c_ReadBytesObjects",
+                "BRC14d_ReadBytesFixedImproved", "BRC15_ParseDoubleFixedST", "BRC20_UseArrayNoBufferST",
+                "BRC21_ManualMinMaxST", "BRC22_EarlyHashCodeST", "BRC23a_NoMulSplitST",
+                "BRC24_DifferentBranchInHashCodeST", "BRC29c_ArrayCopyInMethod", "BRC29d_EqualsNotBoolean",
+                "BRC29e_EarlyIntResolution", "BRC29f_LessDataForTempResolution", "BRC29g_FixedIntParsing",
+                "BRC30_DangerNoEqualsST", "BRC40_NoChannel", "BRC40a_NoChannel", "BRC40b_ReturnInstead",
+                "BRC40c_UnrollTempParsing", "BRC40d_LongLoop", "BRC40e_NoReloadSub", "BRC40f_DoWhile", "BRC40g_Put",
+                "BRC40h_ManualMismatch", "BRC40i_SmallerSemicolonLoop", "BRC40j_LessStateInSetEquals",
+                "BRC41a_FixedFastHashSet", "BRC41b_ReorderedLineFields", "BRC41c_LargerBuffer", "BRC42a_WhileTrue",
+                "BRC42b_NoReturnBranch", "BRC43_NoSubClass", "BRC45_DoubleTheSetSize", "BRC46_TunedHashSet",
+                "BRC47_LeanerPut", "BRC48_FixedFactor", "BRC49_OffsetSubtraction", "BRC50_Short",
+                "BRC51_TempParsingLessBranches", "BRC52_TempParsingBitSubtraction", "BRC53_SetEqualsNoLocalAssignment",
+                "BRC54_LoopVariableBackInLoop", "BRC55_SimplerPutCall", "BRC56_MainLoopAsWhile",
+                "BRC57_SimplerHashing_VOID", "BRC58_UnnoticedCharSkipping", "BRC59_ByteBufferDirect",
+                "BRC60_FeedCPUUnrollSemicolonLoop", "BRC61_BitShiftMul10Void",
+                "BRC62_IsEqualsWithADifferentBranchApproach", "BRC63_Equals", "BRC63b_Equals_MainLoop",
+                "BRC64_CombinePuts", "BRC65_OneMainLoopMethod", "BRC66_HashCode", "BRC67_StoreArrayLength",
+                "BRC68_RemoveNewLinePos", "BRC69_RemovedExtraAdd", "BRC70_RemovedPutReturn", "BRC71_EOFAsReturnValue");
+        notComparable("prints the temperatures ten times too large",
+                "BRC23_NoMulST", "BRC25_SmallAddReordingST", "BRC26_MoreMapSpaceST", "BRC27_SmallPutST",
+                "BRC28_FineTuningST", "BRC29a_ParseDoubleTuningST");
+        notComparable("prints the standard deviation of the sampled mean",
+                "BRC089_Sampled");
+    }
+
+    private static void notComparable(final String reason, final String... names)
+    {
+        for (var name : names)
+        {
+            NOT_COMPARABLE.put(name, reason);
+        }
+    }
+
+    // file name -> expected result
+    private static final Map<Path, String> EXPECTED = new LinkedHashMap<>();
+    private static Path plain;
+    private static String plainExpected;
+    private static Path edges;
+
+    @BeforeAll
+    static void createFiles() throws IOException
+    {
+        System.setProperty("onebrc.cache", tempDir.resolve("cache").toString());
+
+        final Random r = new Random(SEED);
+        final Benchmark baseline = new BRC001_Baseline();
+
+        plain = write("plain", plain(r));
+        plainExpected = baseline.run(plain.toString());
+
+        final List<Path> files = List.of(
+                write("short-names", shortNames(r)),
+                write("long-names", longNames(r)),
+                write("utf8-names", utf8Names(r)),
+                write("extremes", extremes(r)),
+                write("same-hash", sameHash(r)),
+                write("many-stations", manyStations(r)));
+        edges = write("edges", edges(r));
+
+        for (var f : files)
+        {
+            EXPECTED.put(f, baseline.run(f.toString()));
+        }
+        EXPECTED.put(edges, baseline.run(edges.toString()));
+    }
+
+    @AfterAll
+    static void clearCache()
+    {
+        System.clearProperty("onebrc.cache");
+    }
+
+    @TestFactory
+    Stream<DynamicTest> allImplementations() throws IOException
+    {
+        return implementations().stream().map(c -> DynamicTest.dynamicTest(c.getName(), () ->
+            assertTimeoutPreemptively(TIMEOUT, () ->
+            {
+                assumeTrue(!KNOWN_BROKEN.containsKey(c.getSimpleName()), () -> "Known to be broken: " + KNOWN_BROKEN.get(c.getSimpleName()));
+                if (NOT_COMPARABLE.containsKey(c.getSimpleName()))
+                {
+                    // keep the list honest
+                    assertNotEquals(plainExpected, run(c, plain, 0), "Matches the baseline now, remove it from NOT_COMPARABLE");
+                    abort("Not comparable: " + NOT_COMPARABLE.get(c.getSimpleName()));
+                }
+
+                assertEquals(plainExpected, run(c, plain, 0), "plain");
+                for (var e : EXPECTED.entrySet())
+                {
+                    assertEquals(e.getValue(), run(c, e.getKey(), 0), e.getKey().getFileName().toString());
+                }
+                assertEquals(EXPECTED.get(edges), run(c, edges, SMALL_CHUNK_SIZE), "edges, small chunks");
+            })));
+    }
+
+    private static String run(final Class<? extends Benchmark> clazz, final Path file, final long chunkSize) throws Exception
+    {
+        final Benchmark b = clazz.getDeclaredConstructor().newInstance();
+        b.setThreadCount(THREADS);
+        b.setChunkSize(chunkSize);
+        return b.run(file.toString());
+    }
+
+    /**
+     * All concrete Benchmark classes of our sources without the ignore hint. We go by the
+     * sources, because the hint is a comment.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Class<? extends Benchmark>> implementations() throws IOException
+    {
+        final List<Class<? extends Benchmark>> result = new ArrayList<>();
+        try (var files = Files.walk(SOURCES))
+        {
+            for (var file : files.filter(f -> f.toString().endsWith(".java")).sorted().toList())
+            {
+                if (IGNORE.matcher(Files.readString(file)).find())
+                {
+                    continue;
+                }
+
+                final String name = SOURCES.relativize(file).toString()
+                        .replace(".java", "").replace('/', '.').replace('\\', '.');
+                final Class<?> c;
+                try
+                {
+                    c = Class.forName(name, false, DifferentialTest.class.getClassLoader());
+                }
+                catch (ClassNotFoundException | LinkageError e)
+                {
+                    // not compiled for this JDK
+                    continue;
+                }
+
+                if (Benchmark.class.isAssignableFrom(c) && !Modifier.isAbstract(c.getModifiers())
+                        && c != BRC001_Baseline.class)
+                {
+                    result.add((Class<? extends Benchmark>) c);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Path write(final String name, final String content) throws IOException
+    {
+        final Path p = tempDir.resolve(name + ".txt");
+        Files.writeString(p, noTies(content), StandardCharsets.UTF_8);
+        return p;
+    }
+
+    /**
+     * Adds a line to every station with a count that is a multiple of 8
+     */
+    private static String noTies(final String content)
+    {
+        final Map<String, Integer> counts = new LinkedHashMap<>();
+        final Map<String, String> temperatures = new HashMap<>();
+        for (var line : content.split("\n"))
+        {
+            final int semicolon = line.indexOf(';');
+            final String name = line.substring(0, semicolon);
+            counts.merge(name, 1, Integer::sum);
+            temperatures.putIfAbsent(name, line.substring(semicolon + 1));
+        }
+
+        final StringBuilder sb = new StringBuilder(content);
+        counts.forEach((name, count) ->
+        {
+            if (count % 8 == 0)
+            {
+                sb.append(name).append(';').append(temperatures.get(name)).append('\n');
+            }
+        });
+        return sb.toString();
+    }
+
+    /**
+     * -99.9 to 99.9
+     */
+    private static String temperature(final Random r)
+    {
+        final int t = r.nextInt(1999) - 999;
+        return (t < 0 ? "-" : "") + Math.abs(t) / 10 + "." + Math.abs(t) % 10;
+    }
+
+    private static String lines(final Random r, final List<String> names, final int count)
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(names.get(r.nextInt(names.size()))).append(';').append(temperature(r)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Name of exactly the byte length from the alphabet, the alphabet entries can be
+     * several bytes long
+     */
+    private static String name(final Random r, final String[] alphabet, final int bytes)
+    {
+        final StringBuilder sb = new StringBuilder();
+        int length = 0;
+        while (length < bytes)
+        {
+            final String s = alphabet[r.nextInt(alphabet.length)];
+            final int l = s.getBytes(StandardCharsets.UTF_8).length;
+            if (length + l <= bytes)
+            {
+                sb.append(s);
+                length += l;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final String[] ASCII = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 -'".split("");
+    private static final String[] UTF8 = { "a", "Z", " ", "é", "ß", "ø", "Ж", "ü", "中", "日", "ñ", "€", "ஆ", "😀", "𝄞" };
+
+    /**
+     * What the challenge looks like, a few hundred stations of usual length
+     */
+    private static String plain(final Random r)
+    {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 400; i++)
+        {
+            names.add("Station" + i + name(r, ASCII, 2 + r.nextInt(15)).strip().replace(' ', '_'));
+        }
+        return lines(r, names, 20_000);
+    }
+
+    private static String shortNames(final Random r)
+    {
+        final List<String> names = new ArrayList<>();
+        for (var s : ASCII)
+        {
+            if (!s.isBlank())
+            {
+                names.add(s);
+            }
+        }
+        names.add("é");
+        return lines(r, names, 5_000);
+    }
+
+    private static String longNames(final Random r)
+    {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            names.add(name(r, ASCII, 100).strip().replace(' ', '_'));
+            names.add(name(r, UTF8, 100).strip().replace(' ', '_'));
+        }
+        // only the last byte or the length differs
+        final String prefix = "x".repeat(99);
+        names.add(prefix + "a");
+        names.add(prefix + "b");
+        names.add(prefix);
+        names.add("x".repeat(98) + "é");
+        return lines(r, names.stream().filter(n -> !n.isEmpty()).toList(), 5_000);
+    }
+
+    private static String utf8Names(final Random r)
+    {
+        final List<String> names = new ArrayList<>(List.of("Zürich", "İzmir", "Petropavlovsk-Kamchatsky", "Ürümqi",
+                "Flores,  Petén", "São Paulo", "Kraków", "東京", "😀", "😀😀", "Ａ", "A", "ÿ", "𝄞x"));
+        for (int i = 1; i <= 30; i++)
+        {
+            names.add(name(r, UTF8, i).strip().replace(' ', '_'));
+        }
+        return lines(r, names.stream().filter(n -> !n.isEmpty()).toList(), 5_000);
+    }
+
+    private static String extremes(final Random r)
+    {
+        final String[] temperatures = { "-99.9", "99.9", "-0.0", "0.0", "-0.1", "0.1", "9.9", "-9.9", "10.0", "-10.0" };
+        final StringBuilder sb = new StringBuilder();
+        // stations that only ever see one value
+        for (var t : temperatures)
+        {
+            sb.append("Only").append(t).append(';').append(t).append('\n');
+        }
+        for (int i = 0; i < 2_000; i++)
+        {
+            sb.append("Mixed").append(i % 7).append(';').append(temperatures[r.nextInt(temperatures.length)]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * "Aa" and "BB" have the same hash with 31, so all their combinations have too
+     */
+    private static String sameHash(final Random r)
+    {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 16; i++)
+        {
+            final StringBuilder sb = new StringBuilder();
+            for (int b = 0; b < 4; b++)
+            {
+                sb.append((i & (1 << b)) == 0 ? "Aa" : "BB");
+            }
+            names.add(sb.toString());
+        }
+        return lines(r, names, 5_000);
+    }
+
+    private static String manyStations(final Random r)
+    {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++)
+        {
+            names.add("S" + i + "_" + name(r, ASCII, r.nextInt(8)).strip().replace(' ', '_'));
+        }
+        final StringBuilder sb = new StringBuilder();
+        // all of them at least once
+        for (var n : names)
+        {
+            sb.append(n).append(';').append(temperature(r)).append('\n');
+        }
+        return sb.append(lines(r, names, 20_000)).toString();
+    }
+
+    /**
+     * About 1.2 MB of long and short lines, so the usual buffer sizes, 8k up to 1 MB and
+     * 500,000, end somewhere in a line
+     */
+    private static String edges(final Random r)
+    {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+        {
+            names.add(name(r, i % 2 == 0 ? ASCII : UTF8, 1 + r.nextInt(100)).strip().replace(' ', '_'));
+        }
+        final List<String> valid = names.stream().filter(n -> !n.isEmpty()).toList();
+
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 1_200_000)
+        {
+            sb.append(valid.get(r.nextInt(valid.size()))).append(';').append(temperature(r)).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,133 @@
+package org.onebrc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.parallel.BRC086_ResultWriter;
+
+public class QueryDaemonTest
+{
+    @TempDir
+    Path tempDir;
+
+    private String query(final Path socket, final String query) throws IOException
+    {
+        return new String(QueryDaemon.query(socket, query), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void cachedQueries() throws IOException
+    {
+        final Path data = tempDir.resolve("data.txt");
+        Files.writeString(data, "Hamburg;12.0\nBerlin;-1.5\nHamburg;14.0\nParis;20.1\n", StandardCharsets.UTF_8);
+
+        final Path socket = tempDir.resolve("1brc.sock");
+        try (var daemon = new QueryDaemon(socket, BRC086_ResultWriter::new, 2).start())
+        {
+            final var engine = new BRC086_ResultWriter();
+            engine.setThreadCount(2);
+            final String expected = engine.run(data.toString());
+
+            // text is the default and the same as the engine returns
+            assertEquals(expected, query(socket, data.toString()));
+            assertEquals(expected, query(socket, data + "\ttext"));
+            assertEquals(1, daemon.aggregations());
+
+            // all other formats and filters come from the cache
+            assertEquals("{Berlin=1/-1.5/-1.5/-1.5, Paris=1/20.1/20.1/20.1}", query(socket, data + "\ttext\tParis,Berlin,Rome"));
+            assertEquals("station,min,mean,max,count\nHamburg,12.0,13.0,14.0,2\n", query(socket, data + "\tcsv\tHamburg"));
+            assertEquals(1, daemon.aggregations());
+
+            // changed file, new result
+            Files.writeString(data, "Rome;30.0\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            Files.setLastModifiedTime(data, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+            assertEquals("{Rome=1/30.0/30.0/30.0}", query(socket, data + "\ttext\tRome"));
+            assertEquals(2, daemon.aggregations());
+
+            // errors are reported and don't kill the daemon
+            assertTrue(query(socket, tempDir.resolve("missing.txt").toString()).startsWith("ERROR "));
+            assertTrue(query(socket, data + "\txml").startsWith("ERROR Unknown format"));
+            assertEquals(expected.length() + ", Rome=1/30.0/30.0/30.0".length(), query(socket, data.toString()).length());
+        }
+
+        assertTrue(Files.notExists(socket));
+    }
+
+    /**
+     * Only the most recently used files stay
+     */
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException
+    {
+        final Path a = tempDir.resolve("a.txt");
+        final Path b = tempDir.resolve("b.txt");
+        final Path c = tempDir.resolve("c.txt");
+        Files.writeString(a, "A;1.0\n", StandardCharsets.UTF_8);
+        Files.writeString(b, "B;2.0\n", StandardCharsets.UTF_8);
+        Files.writeString(c, "C;3.0\n", StandardCharsets.UTF_8);
+
+        final Path socket = tempDir.resolve("lru.sock");
+        try (var daemon = new QueryDaemon(socket, BRC086_ResultWriter::new, 1, 2).start())
+        {
+            assertEquals("{A=1/1.0/1.0/1.0}", query(socket, a.toString()));
+            assertEquals("{B=1/2.0/2.0/2.0}", query(socket, b.toString()));
+            // a is used more recently than b now
+            assertEquals("{A=1/1.0/1.0/1.0}", query(socket, a.toString()));
+            assertEquals(2, daemon.aggregations());
+
+            // c pushes b out
+            assertEquals("{C=1/3.0/3.0/3.0}", query(socket, c.toString()));
+            assertEquals("{A=1/1.0/1.0/1.0}", query(socket, a.toString()));
+            assertEquals(3, daemon.aggregations());
+            assertEquals("{B=1/2.0/2.0/2.0}", query(socket, b.toString()));
+            assertEquals(4, daemon.aggregations());
+        }
+    }
+
+    /**
+     * Many queries for the same file at once, one aggregation
+     */
+    @Test
+    public void concurrentQueries() throws Exception
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200_000; i++)
+        {
+            sb.append("Station").append(i % 100).append(';').append(i % 50).append(".5\n");
+        }
+        final Path data = tempDir.resolve("large.txt");
+        Files.writeString(data, sb.toString(), StandardCharsets.UTF_8);
+
+        final Path socket = tempDir.resolve("concurrent.sock");
+        try (var daemon = new QueryDaemon(socket, BRC086_ResultWriter::new, 2).start();
+             var executor = Executors.newFixedThreadPool(8))
+        {
+            final List<Future<String>> answers = new ArrayList<>();
+            for (int i = 0; i < 16; i++)
+            {
+                answers.add(executor.submit(() -> query(socket, data.toString())));
+            }
+
+            final String first = answers.get(0).get();
+            assertTrue(first.startsWith("{Station0="), first);
+            for (var answer : answers)
+            {
+                assertEquals(first, answer.get());
+            }
+            assertEquals(1, daemon.aggregations());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.onebrc.again26;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.again26.BRC126_Validating.BadLine;
+import org.onebrc.again26.BRC126_Validating.Line;
+import org.onebrc.again26.BRC126_Validating.Problem;
+
+public class BRC126_Validating_Test
+{
+    @TempDir
+    Path tempDir;
+
+    private Path file(final String content) throws IOException
+    {
+        final Path file = this.tempDir.resolve("measurements.txt");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * Process the content and return the bad lines
+     */
+    private List<BadLine> badLines(final String content) throws IOException
+    {
+        try (var channel = FileChannel.open(file(content)))
+        {
+            final Line line = new Line(channel, false);
+            line.process();
+            assertEquals(line.badLines.size(), line.badLineCount);
+            return line.badLines;
+        }
+    }
+
+    @Test
+    public void missingDelimiter() throws IOException
+    {
+        final String content = "Hamburg;12.0\n\nBerlin;1.0\nNoSemi 3.0\nParis;2.0\n";
+
+        // the empty line and the one without a semicolon, nothing else gets swallowed
+        assertEquals(List.of(
+                new BadLine(13, Problem.MISSING_DELIMITER),
+                new BadLine(25, Problem.MISSING_DELIMITER)), badLines(content));
+
+        assertEquals("{Berlin=1/1.0/1.0/1.0, Hamburg=1/12.0/12.0/12.0, Paris=1/2.0/2.0/2.0}",
+                new BRC126_Validating().run(file(content).toString()));
+    }
+
+    @Test
+    public void missingDelimiterLastLine() throws IOException
+    {
+        assertEquals(List.of(new BadLine(12, Problem.MISSING_DELIMITER)), badLines("Hamburg;1.0\nNoSemi"));
+    }
+
+    @Test
+    public void otherProblems() throws IOException
+    {
+        final String longName = "x".repeat(101);
+        final String content =
+                "A;1.0\r\n" +
+                "B;99.99\n" +
+                longName + ";1.0\n" +
+                "C;5.0\n" +
+                ";1.0\n" +
+                "D;5.0";
+
+        assertEquals(List.of(
+                new BadLine(0, Problem.CRLF),
+                new BadLine(7, Problem.TEMPERATURE),
+                new BadLine(15, Problem.NAME_LENGTH),
+                new BadLine(127, Problem.NAME_LENGTH),
+                new BadLine(132, Problem.MISSING_NEWLINE)), badLines(content));
+    }
+
+    @Test
+    public void failOnBadLine() throws IOException
+    {
+        try (var channel = FileChannel.open(file("Hamburg;12.0\n\nBerlin;1.0\n")))
+        {
+            final Line line = new Line(channel, true);
+            assertThrows(IOException.class, () -> line.process());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.onebrc.classfile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.again26.BRC001_Baseline;
+import org.onebrc.classfile.GeneratedTable.FullException;
+import org.onebrc.util.Dialect;
+
+/**
+ * Needs the ClassFile API of JDK 24 or later, the jdk21-preview profile does not compile it.
+ */
+public class ProcessorGeneratorTest
+{
+    @TempDir
+    Path tempDir;
+
+    /**
+     * min/max/total/count by name
+     */
+    private static TreeMap<String, long[]> process(final String lines, final int capacity, final Dialect dialect, final boolean longTotals)
+            throws IOException
+    {
+        final byte[] data = lines.getBytes(StandardCharsets.UTF_8);
+        final GeneratedTable table = new GeneratedTable(capacity, longTotals);
+        ProcessorGenerator.generate(capacity, dialect, longTotals).process(data, 0, data.length, table);
+
+        final TreeMap<String, long[]> result = new TreeMap<>();
+        table.forEach((name, offset, length, min, max, total, count) ->
+            result.put(new String(name, offset, length, StandardCharsets.UTF_8), new long[] {min, max, total, count}));
+        return result;
+    }
+
+    @Test
+    public void defaultDialect() throws IOException
+    {
+        final var result = process("Hamburg;12.0\nBerlin;-3.4\nHamburg;8.0\nBerlin;-99.9\nBremen;0.0\n",
+                16, Dialect.DEFAULT, false);
+
+        assertEquals(3, result.size());
+        assertArrayEquals(new long[] {-999, -34, -1033, 2}, result.get("Berlin"));
+        assertArrayEquals(new long[] {0, 0, 0, 1}, result.get("Bremen"));
+        assertArrayEquals(new long[] {80, 120, 200, 2}, result.get("Hamburg"));
+    }
+
+    @Test
+    public void crlfAndComma() throws IOException
+    {
+        final var result = process("Hamburg,12.0\r\nBerlin,-3.4\r\nHamburg,99.9\r\n",
+                16, new Dialect((byte) ',', 1, true), true);
+
+        assertEquals(2, result.size());
+        assertArrayEquals(new long[] {-34, -34, -34, 1}, result.get("Berlin"));
+        assertArrayEquals(new long[] {120, 999, 1119, 2}, result.get("Hamburg"));
+    }
+
+    @Test
+    public void full()
+    {
+        assertThrows(IllegalArgumentException.class, () -> ProcessorGenerator.generate(3, Dialect.DEFAULT, false));
+
+        // a capacity of 4 takes 3 stations
+        assertThrows(FullException.class, () -> process("a;1.0\nb;1.0\nc;1.0\nd;1.0\n", 4, Dialect.DEFAULT, false));
+    }
+
+    @Test
+    public void regrow() throws IOException
+    {
+        // a comma hides the stations from the estimate, so the table of 2048 starts too small
+        // for 5,000 stations and the processor has to be regenerated
+        final StringBuilder comma = new StringBuilder();
+        final StringBuilder plain = new StringBuilder();
+        for (int i = 0; i < 20_000; i++)
+        {
+            final String name = "Station" + (i % 5_000);
+            final String t = (i % 199 - 99) + "." + (i % 10);
+            comma.append(name).append(',').append(t).append("\r\n");
+            plain.append(name).append(';').append(t).append('\n');
+        }
+        final Path commaFile = this.tempDir.resolve("comma.txt");
+        final Path plainFile = this.tempDir.resolve("plain.txt");
+        Files.writeString(commaFile, comma);
+        Files.writeString(plainFile, plain);
+
+        try
+        {
+            System.setProperty("onebrc.delimiter", ",");
+            System.setProperty("onebrc.eol", "crlf");
+
+            final BRC095_ClassFile engine = new BRC095_ClassFile();
+            engine.setThreadCount(2);
+            // several tasks per thread, so there is something to cancel
+            engine.setChunkSize(16 * 1024);
+
+            assertEquals(new BRC001_Baseline().run(plainFile.toString()), engine.run(commaFile.toString()));
+        }
+        finally
+        {
+            System.clearProperty("onebrc.delimiter");
+            System.clearProperty("onebrc.eol");
+        }
+    }
+}
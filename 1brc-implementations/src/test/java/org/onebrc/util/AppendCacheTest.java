@@ -0,0 +1,167 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.Benchmark;
+import org.onebrc.ResultWriting;
+import org.onebrc.parallel.BRC086_ResultWriter;
+import org.onebrc.parallel.BRC087_AppendCache;
+
+public class AppendCacheTest
+{
+    @TempDir
+    Path tempDir;
+
+    private final Random random = new Random(7);
+
+    @BeforeEach
+    public void cacheDir()
+    {
+        System.setProperty("onebrc.cache", tempDir.resolve("cache").toString());
+    }
+
+    @AfterEach
+    public void resetCacheDir()
+    {
+        System.clearProperty("onebrc.cache");
+    }
+
+    private String lines(final int count)
+    {
+        final String[] names = {"Hamburg", "Berlin", "Abéché", "Paris", "Rome"};
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            final int t = random.nextInt(1999) - 999;
+            sb.append(names[random.nextInt(names.length)]).append(';')
+                .append(t < 0 ? "-" : "").append(Math.abs(t) / 10).append('.').append(Math.abs(t) % 10).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String expected(final Path p) throws IOException
+    {
+        final var engine = new BRC086_ResultWriter();
+        engine.setThreadCount(3);
+        return engine.run(p.toString());
+    }
+
+    private static String cached(final Path p) throws IOException
+    {
+        final var engine = new BRC087_AppendCache();
+        engine.setThreadCount(3);
+        return engine.run(p.toString());
+    }
+
+    @Test
+    public void appends() throws IOException
+    {
+        final Path p = tempDir.resolve("data.txt");
+        final AppendCache cache = AppendCache.defaultCache();
+
+        Files.writeString(p, lines(10_000), StandardCharsets.UTF_8);
+        assertTrue(cache.load(p).isEmpty());
+        assertEquals(expected(p), cached(p));
+        assertEquals(Files.size(p), cache.load(p).get().processed());
+
+        // nothing new
+        assertEquals(expected(p), cached(p));
+
+        // appended plus a line in the making, which does not count yet
+        final Path complete = tempDir.resolve("complete.txt");
+        Files.writeString(p, lines(5_000), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        Files.copy(p, complete);
+        Files.writeString(p, "Rome;12", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(expected(complete), cached(p));
+        assertEquals(Files.size(p) - "Rome;12".length(), cache.load(p).get().processed());
+
+        // a half written name neither
+        Files.writeString(p, ".5\nHamb", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        Files.writeString(complete, "Rome;12.5\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(expected(complete), cached(p));
+        assertEquals(Files.size(complete), cache.load(p).get().processed());
+
+        // the line got finished
+        Files.writeString(p, "urg;1.0\n" + lines(100), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(expected(p), cached(p));
+        assertEquals(Files.size(p), cache.load(p).get().processed());
+    }
+
+    @Test
+    public void noTrailingNewline() throws IOException
+    {
+        final Path p = tempDir.resolve("data.txt");
+        final AppendCache cache = AppendCache.defaultCache();
+
+        // a finished file, the last line counts, but is not cached
+        final String data = lines(1_000);
+        Files.writeString(p, data + "Rome;-12.5", StandardCharsets.UTF_8);
+        assertEquals(expected(p), cached(p));
+        assertEquals(data.getBytes(StandardCharsets.UTF_8).length, cache.load(p).get().processed());
+
+        // again from the cache, still with the last line
+        assertEquals(expected(p), cached(p));
+
+        // the newline comes after all, the line is not counted twice
+        Files.writeString(p, "\nParis;1.0", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(expected(p), cached(p));
+        assertEquals(Files.size(p) - "Paris;1.0".length(), cache.load(p).get().processed());
+    }
+
+    private static <T extends Benchmark & ResultWriting> String written(final T engine, final Path p) throws IOException
+    {
+        engine.setThreadCount(3);
+        final var out = new ByteArrayOutputStream();
+        try (var writer = ResultWriter.of("text", Channels.newChannel(out)))
+        {
+            engine.write(p.toString(), writer);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void writeOrder() throws IOException
+    {
+        // UTF-8 bytes put \uFF71 before the emoji, the Strings the other way round
+        final Path p = tempDir.resolve("data.txt");
+        Files.writeString(p, "\uFF71;1.0\n\uD83D\uDE00;2.0\nHamburg;3.0\n\uE000;4.0\n", StandardCharsets.UTF_8);
+
+        final String expected = expected(p);
+        assertEquals(expected, written(new BRC086_ResultWriter(), p));
+        assertEquals(expected, written(new BRC087_AppendCache(), p));
+    }
+
+    @Test
+    public void changedFile() throws IOException
+    {
+        final Path p = tempDir.resolve("data.txt");
+        final AppendCache cache = AppendCache.defaultCache();
+
+        Files.writeString(p, "Hamburg;10.0\nBerlin;20.0\n", StandardCharsets.UTF_8);
+        assertEquals(expected(p), cached(p));
+
+        // same size, different content, the digests catch that
+        Files.writeString(p, "Hamburg;11.0\nBerlin;20.0\n", StandardCharsets.UTF_8);
+        assertTrue(cache.load(p).isEmpty());
+        assertEquals("{Berlin=1/20.0/20.0/20.0, Hamburg=1/11.0/11.0/11.0}", cached(p));
+
+        // shorter
+        Files.writeString(p, "Hamburg;11.0\n", StandardCharsets.UTF_8);
+        assertTrue(cache.load(p).isEmpty());
+        assertEquals("{Hamburg=1/11.0/11.0/11.0}", cached(p));
+    }
+}
@@ -0,0 +1,206 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.util.ChunkSplitter.Chunk;
+import org.onebrc.util.PositionableByteReader.LineView;
+
+public class ChunkSplitterTest
+{
+    @TempDir
+    Path tempDir;
+
+    private Path createTestFile(String fileName, String content) throws IOException
+    {
+        Path filePath = tempDir.resolve(fileName);
+        Files.write(filePath, content.getBytes(StandardCharsets.UTF_8));
+        return filePath;
+    }
+
+    /**
+     * Chunks must be gapless, line aligned, and not empty
+     */
+    private static void validate(final byte[] data, final List<Chunk> chunks)
+    {
+        long expectedStart = 0;
+        for (var c : chunks)
+        {
+            assertEquals(expectedStart, c.start());
+            assertTrue(c.length() > 0, c.toString());
+            assertTrue(c.start() == 0 || data[(int) c.start() - 1] == '\n', c.toString());
+            expectedStart = c.end();
+        }
+        assertEquals(data.length, expectedStart);
+    }
+
+    private static List<String> readAll(final Path file, final List<Chunk> chunks) throws IOException
+    {
+        final List<String> lines = new ArrayList<>();
+        for (var c : chunks)
+        {
+            try (var reader = new PositionableByteReader(file.toString(), c, false))
+            {
+                LineView view;
+                while ((view = reader.readLineView()) != null)
+                {
+                    lines.add(new String(view.bytes, view.start, view.end - view.start, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void lineStart() throws IOException
+    {
+        // 0123 4567 89
+        // A;1\nB;2\nC;
+        final Path p = createTestFile("start.txt", "A;1\nB;2\nC;");
+        final byte[] data = Files.readAllBytes(p);
+
+        try (var channel = FileChannel.open(p, StandardOpenOption.READ); var arena = Arena.ofConfined())
+        {
+            final MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+
+            final long[][] expected = {{0, 0}, {1, 4}, {3, 4}, {4, 4}, {5, 8}, {8, 8}, {9, 10}, {10, 10}, {99, 10}};
+            for (long[] e : expected)
+            {
+                assertEquals(e[1], ChunkSplitter.nextLineStart(channel, e[0]), "pos " + e[0]);
+                assertEquals(e[1], ChunkSplitter.nextLineStart(segment, e[0]), "pos " + e[0]);
+            }
+            assertEquals(10, data.length);
+        }
+    }
+
+    @Test
+    public void splitChannelAndSegment() throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5_000; i++)
+        {
+            // different line length to get all kind of boundaries
+            sb.append("City".repeat(1 + i % 7)).append(i % 13).append(';').append(i % 100).append(".").append(i % 10).append('\n');
+        }
+        final Path p = createTestFile("split.txt", sb.toString());
+        final byte[] data = Files.readAllBytes(p);
+        final List<String> expected = sb.toString().lines().toList();
+
+        try (var channel = FileChannel.open(p, StandardOpenOption.READ); var arena = Arena.ofConfined())
+        {
+            final MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+
+            for (int count : new int[] {1, 2, 3, 7, 16, 100, 1000})
+            {
+                final var chunks = ChunkSplitter.split(channel, count);
+                validate(data, chunks);
+                assertEquals(count, chunks.size());
+                assertEquals(chunks, ChunkSplitter.split(segment, count));
+                assertEquals(expected, readAll(p, chunks));
+            }
+
+            for (long size : new long[] {1, 10, 64, 4096, 100_000, 1_000_000})
+            {
+                final var chunks = ChunkSplitter.splitBySize(channel, size);
+                validate(data, chunks);
+                assertEquals(chunks, ChunkSplitter.splitBySize(segment, size));
+                assertEquals(expected, readAll(p, chunks));
+            }
+        }
+    }
+
+    @Test
+    public void tinyAndOddFiles() throws IOException
+    {
+        // more chunks than lines
+        Path p = createTestFile("tiny.txt", "A;1.0\nB;2.0\n");
+        try (var channel = FileChannel.open(p, StandardOpenOption.READ))
+        {
+            final var chunks = ChunkSplitter.split(channel, 8);
+            validate(Files.readAllBytes(p), chunks);
+            assertEquals(List.of("A;1.0", "B;2.0"), readAll(p, chunks));
+        }
+
+        // no trailing newline
+        p = createTestFile("notrailing.txt", "A;1.0\nB;2.0\nC;3.0");
+        try (var channel = FileChannel.open(p, StandardOpenOption.READ))
+        {
+            final var chunks = ChunkSplitter.split(channel, 3);
+            validate(Files.readAllBytes(p), chunks);
+            assertEquals(List.of("A;1.0", "B;2.0", "C;3.0"), readAll(p, chunks));
+        }
+
+        // empty
+        p = createTestFile("empty.txt", "");
+        try (var channel = FileChannel.open(p, StandardOpenOption.READ))
+        {
+            assertEquals(List.of(), ChunkSplitter.split(channel, 4));
+            assertThrows(IllegalArgumentException.class, () -> ChunkSplitter.splitBySize(channel, 0));
+        }
+    }
+
+    @Test
+    public void lastLineEnd() throws IOException
+    {
+        // 0123 4567 89
+        // a;1\nb;2\nc;
+        final Path p = createTestFile("growing.txt", "a;1\nb;2\nc;");
+        try (var channel = FileChannel.open(p, StandardOpenOption.READ))
+        {
+            assertEquals(8, ChunkSplitter.lastLineEnd(channel, 10));
+            assertEquals(8, ChunkSplitter.lastLineEnd(channel, 8));
+            assertEquals(4, ChunkSplitter.lastLineEnd(channel, 7));
+            assertEquals(0, ChunkSplitter.lastLineEnd(channel, 3));
+            assertEquals(0, ChunkSplitter.lastLineEnd(channel, 0));
+        }
+
+        // longer than a single peek
+        final Path q = createTestFile("long.txt", "a;1\n" + "x".repeat(1000));
+        try (var channel = FileChannel.open(q, StandardOpenOption.READ))
+        {
+            assertEquals(4, ChunkSplitter.lastLineEnd(channel, channel.size()));
+        }
+    }
+
+    @Test
+    public void splitRange() throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+        {
+            sb.append("Station").append(i).append(";1.0\n");
+        }
+        final Path p = createTestFile("range.txt", sb.toString());
+
+        try (var channel = FileChannel.open(p, StandardOpenOption.READ))
+        {
+            final long from = ChunkSplitter.nextLineStart(channel, 5000);
+            final long to = ChunkSplitter.nextLineStart(channel, 12000);
+            final var chunks = ChunkSplitter.split(channel, from, to, 7);
+
+            assertEquals(7, chunks.size());
+            assertEquals(from, chunks.get(0).start());
+            assertEquals(to, chunks.get(chunks.size() - 1).end());
+            for (int i = 1; i < chunks.size(); i++)
+            {
+                assertEquals(chunks.get(i - 1).end(), chunks.get(i).start());
+                // a line start
+                assertEquals(chunks.get(i).start(), ChunkSplitter.lastLineEnd(channel, chunks.get(i).start()));
+            }
+        }
+    }
+}
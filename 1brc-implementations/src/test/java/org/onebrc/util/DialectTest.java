@@ -0,0 +1,119 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DialectTest
+{
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Parse the temperature of a full line with \n
+     */
+    private static int parse(final Dialect dialect, final String temperature)
+    {
+        final byte[] line = ("X" + (char) dialect.delimiter() + temperature + "\n").getBytes(StandardCharsets.UTF_8);
+        return dialect.parser().parse(line, 2, line.length - 1);
+    }
+
+    @Test
+    public void defaultDialect()
+    {
+        final Dialect d = Dialect.DEFAULT;
+        assertTrue(d.isDefault());
+        assertEquals(0, parse(d, "0.0"));
+        assertEquals(-12, parse(d, "-1.2"));
+        assertEquals(999, parse(d, "99.9"));
+        assertEquals(-999, parse(d, "-99.9"));
+        assertEquals(53, parse(d, "5.3"));
+    }
+
+    @Test
+    public void otherDialects()
+    {
+        final Dialect two = new Dialect((byte) ',', 2, false);
+        assertEquals(1234, parse(two, "12.34"));
+        assertEquals(-5, parse(two, "-0.05"));
+        assertEquals(-9999, parse(two, "-99.99"));
+
+        final Dialect crlf = new Dialect((byte) ';', 1, true);
+        assertEquals(-123, parse(crlf, "-12.3\r"));
+        assertEquals(7, parse(crlf, "0.7\r"));
+
+        final Dialect none = new Dialect((byte) '\t', 0, true);
+        assertEquals(-42, parse(none, "-42\r"));
+        assertEquals(100, parse(none, "100\r"));
+
+        final Dialect three = new Dialect((byte) '|', 3, false);
+        assertEquals(1005, parse(three, "1.005"));
+    }
+
+    @Test
+    public void invalid()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new Dialect((byte) '.', 1, false));
+        assertThrows(IllegalArgumentException.class, () -> new Dialect((byte) '7', 1, false));
+        assertThrows(IllegalArgumentException.class, () -> new Dialect((byte) ';', 4, false));
+    }
+
+    @Test
+    public void fromSystemProperties()
+    {
+        try
+        {
+            assertEquals(Dialect.DEFAULT, Dialect.fromSystemProperties());
+
+            System.setProperty("onebrc.delimiter", "tab");
+            System.setProperty("onebrc.decimals", "2");
+            System.setProperty("onebrc.eol", "crlf");
+            assertEquals(new Dialect((byte) '\t', 2, true), Dialect.fromSystemProperties());
+
+            System.setProperty("onebrc.eol", "cr");
+            assertThrows(IllegalArgumentException.class, () -> Dialect.fromSystemProperties());
+        }
+        finally
+        {
+            System.clearProperty("onebrc.delimiter");
+            System.clearProperty("onebrc.decimals");
+            System.clearProperty("onebrc.eol");
+        }
+    }
+
+    @Test
+    public void delimitedReader() throws IOException
+    {
+        final Path file = this.tempDir.resolve("m.txt");
+        Files.writeString(file, "Hamburg|12.34\r\nBad; Name|-1.00\r\n");
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            final var chunk = ChunkSplitter.split(channel, 1).get(0);
+            final Dialect dialect = new Dialect((byte) '|', 2, true);
+            try (var r = new PositionableByteReader(file.toString(), chunk, false, dialect.delimiter()))
+            {
+                var line = r.readDelimitedLineView();
+                assertEquals("Hamburg", line.toString());
+                assertEquals(1234, dialect.parser().parse(line.bytes, line.semicolon + 1, line.end));
+
+                line = r.readDelimitedLineView();
+                assertEquals("Bad; Name", line.toString());
+                assertEquals(-100, dialect.parser().parse(line.bytes, line.semicolon + 1, line.end));
+
+                assertNull(r.readDelimitedLineView());
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Works with and without O_DIRECT support of the temp file system,
+ * the data must be the same in both cases.
+ */
+public class DirectFileReaderTest
+{
+    private static byte[] readAll(Path p, long from, long to, int bufferSize, int readAhead) throws IOException
+    {
+        final var out = new ByteArrayOutputStream();
+        try (var reader = new DirectFileReader(p, from, to, bufferSize, readAhead))
+        {
+            final byte[] data = new byte[777];
+            int read;
+            while ((read = reader.read(data, 0, data.length)) != -1)
+            {
+                out.write(data, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void ranges() throws IOException
+    {
+        final long size = 50_000;
+        final Path p = BasicWindowedBufferTest.create(i -> (byte) (i * 31), size);
+        final byte[] expected = Files.readAllBytes(p);
+
+        final long[][] ranges = {
+                {0, size}, {1, size}, {4095, 4097}, {4096, 8192}, {13, 49_999}, {0, 1}, {10_000, size + 100}
+        };
+        for (long[] range : ranges)
+        {
+            for (int bufferSize : new int[] {1, 4096, 5000, 65536})
+            {
+                for (int readAhead : new int[] {1, 3})
+                {
+                    final byte[] data = readAll(p, range[0], range[1], bufferSize, readAhead);
+                    assertArrayEquals(
+                            Arrays.copyOfRange(expected, (int) range[0], (int) Math.min(size, range[1])), data,
+                            Arrays.toString(range) + " / " + bufferSize + " / " + readAhead);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void buffers() throws IOException
+    {
+        final Path p = BasicWindowedBufferTest.create(i -> i.byteValue(), 10_000);
+
+        try (var reader = new DirectFileReader(p, 100, 9_000, 4096, 2))
+        {
+            var b = reader.next();
+            // the first read starts aligned, we only see what we asked for
+            assertEquals(100, b.get(b.position()) & 0xff);
+
+            long total = b.remaining();
+            while ((b = reader.next()) != null)
+            {
+                total += b.remaining();
+            }
+            assertEquals(8_900, total);
+            assertNull(reader.next());
+        }
+    }
+
+    /**
+     * An allocation that is aligned already, the default allocation is only by chance
+     */
+    @Test
+    public void alignedAllocation()
+    {
+        final int blockSize = 4096;
+        final ByteBuffer raw = ByteBuffer.allocateDirect(4 * blockSize).alignedSlice(blockSize).slice(0, 3 * blockSize);
+        assertEquals(0, raw.alignmentOffset(0, blockSize));
+        assertEquals(3 * blockSize, raw.capacity());
+
+        final ByteBuffer b = DirectFileReader.alignedBuffer(raw, 2 * blockSize, blockSize);
+        assertEquals(2 * blockSize, b.capacity());
+        assertEquals(2 * blockSize, b.clear().remaining());
+        assertEquals(0, b.alignmentOffset(0, blockSize));
+
+        // and the unaligned one
+        final ByteBuffer u = DirectFileReader.alignedBuffer(ByteBuffer.allocateDirect(3 * blockSize).slice(1, 3 * blockSize - 1), blockSize, blockSize);
+        assertEquals(blockSize, u.capacity());
+        assertTrue(u.isDirect());
+        assertEquals(0, u.alignmentOffset(0, blockSize));
+    }
+
+    @Test
+    public void empty() throws IOException
+    {
+        final Path p = BasicWindowedBufferTest.create(i -> i.byteValue(), 0);
+
+        assertEquals(0, readAll(p, 0, 100, 4096, 2).length);
+    }
+}
@@ -0,0 +1,138 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.again26.BRC001_Baseline;
+import org.onebrc.parallel.BRC088_Follow;
+import org.onebrc.util.PositionableByteReader.LineView;
+
+public class FollowingByteReaderTest
+{
+    @TempDir
+    Path tempDir;
+
+    private static String line(final LineView view)
+    {
+        return new String(view.bytes, view.start, view.end - view.start, StandardCharsets.UTF_8);
+    }
+
+    private void append(final Path p, final String s) throws IOException
+    {
+        Files.writeString(p, s, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void partialLinesAreCarriedOver() throws IOException
+    {
+        final Path p = tempDir.resolve("growing.txt");
+        append(p, "");
+
+        try (var r = new FollowingByteReader(p, 0))
+        {
+            assertNull(r.readLineView());
+
+            append(p, "Hamburg;12.0\nBer");
+            assertEquals("Hamburg;12.0", line(r.readLineView()));
+            assertNull(r.readLineView());
+            assertEquals(13, r.position());
+
+            append(p, "lin;-1");
+            assertNull(r.readLineView());
+
+            append(p, ".5\nParis;20.0\n");
+            final LineView v = r.readLineView();
+            assertEquals("Berlin;-1.5", line(v));
+            assertEquals("Berlin", v.toString());
+            assertEquals("Berlin".hashCode(), v.cityHash);
+            assertEquals("Paris;20.0", line(r.readLineView()));
+            assertNull(r.readLineView());
+            assertEquals(Files.size(p), r.position());
+        }
+    }
+
+    @Test
+    public void manyBuffers() throws IOException
+    {
+        final Path p = tempDir.resolve("large.txt");
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100_000; i++)
+        {
+            sb.append("Station").append(i).append(";1.0\n");
+        }
+        append(p, sb.toString());
+
+        int count = 0;
+        try (var r = new FollowingByteReader(p, 0))
+        {
+            LineView v;
+            while ((v = r.readLineView()) != null)
+            {
+                assertEquals("Station" + count, v.toString());
+                count++;
+            }
+        }
+        assertEquals(100_000, count);
+    }
+
+    @Test
+    public void lastLineWithoutNewline() throws IOException
+    {
+        final Path p = tempDir.resolve("complete.txt");
+        append(p, "Hamburg;12.0\nBerlin;-1.5");
+
+        try (var r = new FollowingByteReader(p, 0))
+        {
+            assertEquals("Hamburg;12.0", line(r.readLineView()));
+            assertNull(r.readLineView());
+
+            final LineView v = r.readLastLine();
+            assertEquals("Berlin;-1.5", line(v));
+            assertEquals("Berlin".hashCode(), v.cityHash);
+
+            // only once
+            assertNull(r.readLastLine());
+            assertNull(r.readLineView());
+        }
+
+        // the same for the engine
+        assertEquals(new BRC001_Baseline().run(p.toString()), new BRC088_Follow().run(p.toString()));
+    }
+
+    @Test
+    public void noLastLine() throws IOException
+    {
+        final Path p = tempDir.resolve("complete.txt");
+        append(p, "Hamburg;12.0\n");
+
+        try (var r = new FollowingByteReader(p, 0))
+        {
+            assertEquals("Hamburg;12.0", line(r.readLineView()));
+            assertNull(r.readLineView());
+            assertNull(r.readLastLine());
+        }
+    }
+
+    @Test
+    public void truncated() throws IOException
+    {
+        final Path p = tempDir.resolve("truncated.txt");
+        append(p, "Hamburg;12.0\nBer");
+
+        try (var r = new FollowingByteReader(p, 0))
+        {
+            r.readLineView();
+            Files.writeString(p, "Ham", StandardCharsets.UTF_8);
+            assertThrows(IOException.class, () -> r.readLineView());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class HyperLogLogTest
+{
+    @TempDir
+    Path tempDir;
+
+    private static void assertAbout(final long expected, final long actual)
+    {
+        // a few standard errors, the switch from linear counting to HLL around 10k is the worst spot
+        assertTrue(Math.abs(expected - actual) <= Math.max(2, expected * 0.08), expected + " vs. " + actual);
+    }
+
+    @Test
+    public void estimate()
+    {
+        for (int n : new int[] {0, 1, 10, 413, 10_000, 100_000, 1_000_000})
+        {
+            final HyperLogLog hll = new HyperLogLog();
+            for (int i = 0; i < n; i++)
+            {
+                final byte[] name = ("Station" + i).getBytes(StandardCharsets.UTF_8);
+                hll.add(name, 0, name.length);
+                // duplicates don't count
+                hll.add(name, 0, name.length);
+            }
+            assertAbout(n, hll.estimate());
+        }
+    }
+
+    @Test
+    public void tableCapacity()
+    {
+        assertEquals(16, HyperLogLog.tableCapacity(0));
+        assertEquals(16, HyperLogLog.tableCapacity(7));
+        assertEquals(1024, HyperLogLog.tableCapacity(413));
+        assertEquals(32768, HyperLogLog.tableCapacity(10_000));
+    }
+
+    @Test
+    public void estimateStations() throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500_000; i++)
+        {
+            sb.append("Station").append(i % 3_000).append(";12.3\n");
+        }
+        final Path p = tempDir.resolve("data.txt");
+        Files.writeString(p, sb.toString(), StandardCharsets.UTF_8);
+
+        assertAbout(3_000, HyperLogLog.estimateStations(p));
+    }
+}
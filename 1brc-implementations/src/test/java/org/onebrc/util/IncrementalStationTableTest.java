@@ -0,0 +1,122 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class IncrementalStationTableTest
+{
+    /**
+     * The hash as the reader calculates it
+     */
+    private static int hash(final byte[] name)
+    {
+        int h = 0;
+        for (byte b : name)
+        {
+            h = h * 31 + b;
+        }
+        return h;
+    }
+
+    private static void update(final IncrementalStationTable table, final String name, final int temperature)
+    {
+        final byte[] b = name.getBytes(StandardCharsets.UTF_8);
+        table.update(b, 0, b.length, hash(b), temperature);
+    }
+
+    @Test
+    public void single()
+    {
+        final IncrementalStationTable table = new IncrementalStationTable(16);
+        update(table, "Hamburg", 12);
+        update(table, "Hamburg", -34);
+        update(table, "Hamburg", 99);
+        update(table, "Zürich", -999);
+
+        assertEquals(2, table.size());
+        assertEquals("{Hamburg=3/-3.4/2.567/9.9, Zürich=1/-99.9/-99.9/-99.9}", table.toTreeMap().toString());
+    }
+
+    @Test
+    public void millionStations() throws IOException
+    {
+        // from tiny, so it grows a lot, every station is updated before, during and after growing
+        final IncrementalStationTable table = new IncrementalStationTable(16);
+        final int stations = 1_200_000;
+        for (int round = 0; round < 3; round++)
+        {
+            for (int i = 0; i < stations; i++)
+            {
+                update(table, "Station" + i, (i % 1999) - 999);
+            }
+        }
+        assertEquals(stations, table.size());
+
+        final Map<String, Long> counts = new HashMap<>();
+        table.forEach((name, offset, length, min, max, total, count) ->
+        {
+            final String s = new String(name, offset, length, StandardCharsets.UTF_8);
+            final int i = Integer.parseInt(s.substring(7));
+            assertEquals((i % 1999) - 999, min);
+            assertEquals((i % 1999) - 999, max);
+            assertEquals(3L * ((i % 1999) - 999), total);
+            counts.put(s, count);
+        });
+
+        assertEquals(stations, counts.size());
+        counts.values().forEach(c -> assertEquals(3L, c));
+    }
+
+    @Test
+    public void addAll()
+    {
+        final IncrementalStationTable a = new IncrementalStationTable(16);
+        final IncrementalStationTable b = new IncrementalStationTable(16);
+        for (int i = 0; i < 50_000; i++)
+        {
+            update(a, "S" + i, 10);
+            update(b, "S" + (i + 25_000), -10);
+        }
+
+        a.addAll(b);
+        assertEquals(75_000, a.size());
+
+        final var map = a.toTreeMap();
+        assertEquals("1/1.0/1.0/1.0", map.get("S0"));
+        assertEquals("2/-1.0/0.0/1.0", map.get("S30000"));
+        assertEquals("1/-1.0/-1.0/-1.0", map.get("S74999"));
+    }
+
+    @Test
+    public void longNames()
+    {
+        // names close to a page, so we need new pages all the time
+        final IncrementalStationTable table = new IncrementalStationTable(16);
+        for (int i = 0; i < 5; i++)
+        {
+            update(table, String.valueOf(i).repeat(1_000_000), i);
+        }
+        update(table, "3".repeat(1_000_000), 7);
+
+        assertEquals(5, table.size());
+        assertEquals("2/0.3/0.5/0.7", table.toTreeMap().get("3".repeat(1_000_000)));
+    }
+
+    @Test
+    public void countOverflow()
+    {
+        // the merged count of a spilled station, one more does not fit into the int
+        final byte[] b = "Hamburg".getBytes(StandardCharsets.UTF_8);
+        final IncrementalStationTable table = new IncrementalStationTable(16);
+        table.add(b, 0, b.length, hash(b), 10, 10, 10L * Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+        assertThrows(ArithmeticException.class, () -> update(table, "Hamburg", 10));
+    }
+}
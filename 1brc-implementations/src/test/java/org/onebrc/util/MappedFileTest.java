@@ -0,0 +1,99 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.util.MappedFile.Advice;
+import org.onebrc.util.MappedFile.Options;
+
+public class MappedFileTest
+{
+    @TempDir
+    Path tempDir;
+
+    private Path file(final int size) throws IOException
+    {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+        {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        final Path p = this.tempDir.resolve("m-" + size + ".txt");
+        Files.write(p, data);
+        return p;
+    }
+
+    private static byte[] bytes(final MemorySegment s)
+    {
+        return s.toArray(ValueLayout.JAVA_BYTE);
+    }
+
+    @Test
+    public void sameContent() throws IOException
+    {
+        final Path p = file(3 * 4096 + 17);
+        final byte[] expected = Files.readAllBytes(p);
+
+        for (var options : new Options[] {
+                Options.DEFAULT,
+                new Options(true, false, Set.of()),
+                new Options(true, true, EnumSet.allOf(Advice.class)) })
+        {
+            try (var arena = Arena.ofConfined())
+            {
+                final MemorySegment s = MappedFile.map(p, arena, options);
+                assertEquals(expected.length, s.byteSize());
+                assertEquals(new String(expected), new String(bytes(s)));
+
+                // the kernel might refuse, but it must not break anything
+                MappedFile.advise(s, 4095, 4098, options.advices());
+                assertEquals(expected[5000], s.get(ValueLayout.JAVA_BYTE, 5000));
+            }
+        }
+    }
+
+    @Test
+    public void empty() throws IOException
+    {
+        final Path p = file(0);
+        try (var arena = Arena.ofConfined())
+        {
+            assertEquals(0, MappedFile.map(p, arena, new Options(true, false, Set.of())).byteSize());
+            assertEquals(0, MappedFile.map(p, arena, Options.DEFAULT).byteSize());
+        }
+    }
+
+    @Test
+    public void fromSystemProperties()
+    {
+        try
+        {
+            assertEquals(Options.DEFAULT, Options.fromSystemProperties());
+
+            System.setProperty("onebrc.mmap", "native");
+            System.setProperty("onebrc.populate", "true");
+            System.setProperty("onebrc.madvise", "sequential, hugepage");
+            assertEquals(new Options(true, true, EnumSet.of(Advice.SEQUENTIAL, Advice.HUGEPAGE)), Options.fromSystemProperties());
+
+            System.setProperty("onebrc.mmap", "channel");
+            assertThrows(IllegalArgumentException.class, () -> Options.fromSystemProperties());
+        }
+        finally
+        {
+            System.clearProperty("onebrc.mmap");
+            System.clearProperty("onebrc.populate");
+            System.clearProperty("onebrc.madvise");
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Same reading expectations as for the BasicWindowedBuffer, the window
+ * behaves like the buffer there.
+ */
+public class MappedWindowedBufferTest
+{
+    private void testReading(
+            final long fileSize, final int windowSize,
+            final long from, final long to,
+            final long expectedBufferBytesRemaining,
+            final long expectedFileBytesRemaining,
+            final long expectedTotalFileBytesRemaining) throws IOException
+    {
+        final Path p = BasicWindowedBufferTest.create(i -> i.byteValue(), fileSize);
+        final byte[] readData = new byte[(int) (to - from + 1)];
+
+        try (var buffer = new MappedWindowedBuffer(p, from, to, windowSize))
+        {
+            assertEquals(0, buffer.remainingBufferedBytes());
+            assertEquals(fileSize - from, buffer.remainingFileBytes());
+            assertEquals(to - from + 1, buffer.remainingBytesToRead());
+
+            int readDataPos = 0;
+            while (buffer.remainingBytesToRead() > 0)
+            {
+                readData[readDataPos++] = buffer.read();
+            }
+
+            BasicWindowedBufferTest.compare(p, readData, from, to);
+            assertEquals(expectedBufferBytesRemaining, buffer.remainingBufferedBytes());
+            assertEquals(expectedFileBytesRemaining, buffer.remainingBytesToRead());
+            assertEquals(expectedTotalFileBytesRemaining, buffer.remainingFileBytes());
+        }
+    }
+
+    @Test
+    public void ctr() throws IOException
+    {
+        var p = BasicWindowedBufferTest.create(i -> 1, 1024L);
+        try (var b = new MappedWindowedBuffer(p, 512))
+        {
+            assertEquals(512, b.bufferSize());
+            assertEquals(1024, b.fileSize);
+            assertEquals(1023, b.to);
+        }
+    }
+
+    @Test
+    public void readAll() throws IOException
+    {
+        testReading(500L, 500, 0, 499, 0, 0, 0);
+        testReading(8L, 4, 0, 7, 0, 0, 0);
+        testReading(2716L, 1, 0, 2715, 0, 0, 0);
+        testReading(4L, 1000, 0, 3, 0, 0, 0);
+        testReading(9876L, 11118, 0, 9875, 0, 0, 0);
+    }
+
+    @Test
+    public void readWindow() throws IOException
+    {
+        testReading(20L, 10, 0, 18, 1, 0, 1);
+        testReading(20L, 10, 1, 19, 0, 0, 0);
+        testReading(20L, 10, 1, 18, 1, 0, 1);
+        testReading(20L, 10, 3, 3, 9, 0, 16);
+        testReading(20L, 10, 2, 7, 4, 0, 12);
+
+        testReading(20L, 30, 0, 18, 1, 0, 1);
+        testReading(20L, 30, 3, 3, 16, 0, 16);
+        testReading(20L, 30, 2, 7, 12, 0, 12);
+    }
+
+    @Test
+    public void readOverTheEnd() throws IOException
+    {
+        final Path p = BasicWindowedBufferTest.create(i -> i.byteValue(), 20);
+
+        try (var buffer = new MappedWindowedBuffer(p, 0, 9, 4))
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                buffer.read();
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> buffer.read());
+        }
+        try (var buffer = new MappedWindowedBuffer(p, 18, 30, 4))
+        {
+            buffer.read();
+            buffer.read();
+            assertThrows(EOFException.class, () -> buffer.read());
+        }
+    }
+
+    /**
+     * Marks across several windows, nothing moves, so that is just the same
+     */
+    @Test
+    public void markers() throws IOException
+    {
+        final Path p = BasicWindowedBufferTest.create(i -> (byte) ('a' + i % 26), 100);
+
+        try (var buffer = new MappedWindowedBuffer(p, 0, 99, 3))
+        {
+            // skip 'a'
+            buffer.read();
+            buffer.mark1();
+            for (int i = 0; i < 10; i++)
+            {
+                buffer.read();
+            }
+            buffer.mark2(0);
+
+            assertTrue(buffer.matchMarkedArea("bcdefghijk".getBytes()));
+            assertFalse(buffer.matchMarkedArea("bcdefghijx".getBytes()));
+            assertFalse(buffer.matchMarkedArea("bcdefghij".getBytes()));
+
+            // mark2 is included in the copy
+            assertArrayEquals("bcdefghijkl".getBytes(), buffer.copyMarkedArea());
+            assertEquals(10, buffer.markedArea().byteSize());
+
+            buffer.resetMark();
+            assertEquals(-1, buffer.mark1);
+            assertEquals(-1, buffer.mark2);
+        }
+    }
+
+    /**
+     * A sparse file beyond the int range, we only pay for the few bytes we write
+     */
+    @Test
+    public void beyond2GB() throws IOException
+    {
+        final Path p = Files.createTempFile(UUID.randomUUID().toString(), ".test");
+        p.toFile().deleteOnExit();
+
+        final long size = 3L * 1024 * 1024 * 1024;
+        final long pos = size - 1000;
+        try (var raf = new RandomAccessFile(p.toFile(), "rw"))
+        {
+            raf.setLength(size);
+            raf.seek(pos);
+            raf.write("Hamburg;12.0\n".getBytes());
+        }
+
+        try (var buffer = new MappedWindowedBuffer(p, pos, size - 1, 4))
+        {
+            buffer.mark1();
+            while (buffer.read() != ';')
+            {
+            }
+            buffer.mark2(-1);
+
+            assertTrue(buffer.matchMarkedArea("Hamburg".getBytes()));
+            assertEquals(pos, buffer.mark1);
+            assertEquals(size - pos - 8, buffer.remainingBytesToRead());
+        }
+        finally
+        {
+            Files.delete(p);
+        }
+    }
+}
@@ -49,4 +49,16 @@ public class MathUtilTest
         assertEquals("3/10.0/3.3/21.0", String.valueOf(MathUtil.toString(100, 3, 100, 210)));
         assertEquals("4/10.0/2.5/21.0", String.valueOf(MathUtil.toString(100, 4, 100, 210)));
     }
+
+    @Test
+    void variance()
+    {
+        // 1.0, 2.0, 3.0, 4.0
+        assertEquals(1.25d, MathUtil.variance(100, 3000, 4));
+        // all the same, no spread
+        assertEquals(0d, MathUtil.variance(-3 * 999, 3 * 999 * 999, 3));
+        // a billion rows do not fit into a long anymore
+        assertEquals(0d, MathUtil.variance(999_000_000_000L, 998_001_000_000_000L, 1_000_000_000));
+        assertEquals("4/1.0/2.5/4.0/1.25/1.118", MathUtil.toStringFromInteger(100L, 3000L, 4L, 10, 40));
+    }
 }
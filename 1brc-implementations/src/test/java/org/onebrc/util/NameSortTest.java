@@ -0,0 +1,105 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+public class NameSortTest
+{
+    // ASCII, Latin, CJK, the top of the BMP and emojis above it, the spot where UTF-8 and UTF-16 differ
+    private static final int[] CODE_POINTS = {'a', 'b', 'z', 'A', ' ', 'é', 'ü', 'ß', 0x4E2D, 0xD7FF, 0xE000, 0xFB01, 0xFF21, 0x1F600, 0x10400};
+
+    private static String random(final Random r)
+    {
+        final StringBuilder sb = new StringBuilder();
+        final int length = 1 + r.nextInt(8);
+        for (int i = 0; i < length; i++)
+        {
+            sb.appendCodePoint(CODE_POINTS[r.nextInt(CODE_POINTS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static void assertSorted(final List<String> names)
+    {
+        final byte[][] data = new byte[names.size()][];
+        final int[] offsets = new int[names.size()];
+        final int[] lengths = new int[names.size()];
+        for (int i = 0; i < names.size(); i++)
+        {
+            // with some garbage in front, names don't have to start at 0
+            final byte[] b = ("xx" + names.get(i)).getBytes(StandardCharsets.UTF_8);
+            data[i] = b;
+            offsets[i] = 2;
+            lengths[i] = b.length - 2;
+        }
+
+        final int[] order = NameSort.sort(data, offsets, lengths);
+
+        final List<String> expected = new ArrayList<>(names);
+        expected.sort(null);
+        final List<String> actual = new ArrayList<>();
+        for (int o : order)
+        {
+            actual.add(new String(data[o], offsets[o], lengths[o], StandardCharsets.UTF_8));
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void utf16Order()
+    {
+        // the same order as String, even if the bytes say otherwise
+        final byte[] bmp = "Ａ".getBytes(StandardCharsets.UTF_8);
+        final byte[] emoji = "😀".getBytes(StandardCharsets.UTF_8);
+        assertTrue(NameSort.compare(emoji, 0, emoji.length, bmp, 0, bmp.length) < 0);
+        assertTrue(NameSort.compare(bmp, 0, bmp.length, emoji, 0, emoji.length) > 0);
+
+        assertSorted(List.of("Ａ", "😀", "a", "ab", "", "", "퟿", "𐐀"));
+    }
+
+    @Test
+    public void small()
+    {
+        assertSorted(List.of());
+        assertSorted(List.of("Hamburg"));
+        assertSorted(List.of("b", "a", "aa", "a", "ab"));
+    }
+
+    @Test
+    public void randomNames()
+    {
+        final Random r = new Random(42);
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++)
+        {
+            names.add(random(r));
+        }
+        assertSorted(names);
+    }
+
+    @Test
+    public void parallel()
+    {
+        // enough to go parallel, distinct like stations are
+        final Random r = new Random(7);
+        final TreeSet<String> names = new TreeSet<>();
+        while (names.size() < 300_000)
+        {
+            names.add(random(r) + r.nextInt(1000));
+        }
+        final List<String> shuffled = new ArrayList<>(names);
+        Collections.shuffle(shuffled, r);
+
+        assertSorted(shuffled);
+    }
+}
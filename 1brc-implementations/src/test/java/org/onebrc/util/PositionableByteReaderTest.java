@@ -0,0 +1,152 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.util.PositionableByteReader.LineView;
+
+/**
+ * Checks the bulk line api against the byte by byte api
+ */
+public class PositionableByteReaderTest
+{
+    @TempDir
+    Path tempDir;
+
+    private Path createTestFile(String fileName, String content) throws IOException
+    {
+        Path filePath = tempDir.resolve(fileName);
+        Files.write(filePath, content.getBytes(StandardCharsets.UTF_8));
+        return filePath;
+    }
+
+    private static String toString(LineView view)
+    {
+        return new String(view.bytes, view.start, view.end - view.start, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> readLines(Path file, long from, long to) throws IOException
+    {
+        final List<String> lines = new ArrayList<>();
+        try (var reader = new PositionableByteReader(file.toString(), from, to))
+        {
+            PositionableByteReader.Line line;
+            while ((line = reader.readln()) != null)
+            {
+                // the ; itself is not stored in the line
+                lines.add(new String(line.bytes, 0, line.semicolon, StandardCharsets.UTF_8) 
+                        + ";" 
+                        + new String(line.bytes, line.semicolon + 1, line.length - line.semicolon - 1, StandardCharsets.UTF_8));
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> readViews(Path file, long from, long to) throws IOException
+    {
+        return readViews(file, from, to, false);
+    }
+
+    private static List<String> readViews(Path file, long from, long to, boolean directIO) throws IOException
+    {
+        final List<String> lines = new ArrayList<>();
+        try (var reader = new PositionableByteReader(file.toString(), from, to, directIO))
+        {
+            LineView view;
+            while ((view = reader.readLineView()) != null)
+            {
+                lines.add(toString(view));
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    void simpleLines() throws IOException
+    {
+        String content = "Hamburg;12.0\nBerlin;-1.2\nÄÖÜ;99.9\n";
+        Path file = createTestFile("simple.txt", content);
+
+        try (var reader = new PositionableByteReader(file.toString(), 0, Files.size(file)))
+        {
+            LineView view = reader.readLineView();
+            assertEquals("Hamburg", view.toString());
+            assertEquals("12.0", new String(view.bytes, view.semicolon + 1, view.end - view.semicolon - 1));
+            assertEquals("Hamburg".hashCode(), view.cityHash);
+
+            view = reader.readLineView();
+            assertEquals("Berlin", view.toString());
+            assertEquals(6, view.cityLength());
+            assertEquals("-1.2", new String(view.bytes, view.semicolon + 1, view.end - view.semicolon - 1));
+
+            view = reader.readLineView();
+            assertEquals("ÄÖÜ", new String(view.bytes, view.start, view.cityLength(), StandardCharsets.UTF_8));
+
+            assertNull(reader.readLineView());
+            assertNull(reader.readLineView());
+        }
+    }
+
+    @Test
+    void noTrailingNewline() throws IOException
+    {
+        Path file = createTestFile("notrailing.txt", "A;1.0\nB;2.0");
+
+        assertEquals(List.of("A;1.0", "B;2.0"), readViews(file, 0, Files.size(file)));
+    }
+
+    @Test
+    void emptyFile() throws IOException
+    {
+        Path file = createTestFile("empty.txt", "");
+
+        assertEquals(List.of(), readViews(file, 0, 0));
+    }
+
+    /**
+     * Larger than the buffer, so we see refills with lines across the buffer end
+     */
+    @Test
+    void largerThanBufferAndChunked() throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++)
+        {
+            sb.append("City").append(i % 997).append(';').append(i % 100).append('.').append(i % 10).append('\n');
+        }
+        Path file = createTestFile("large.txt", sb.toString());
+        final long size = Files.size(file);
+
+        // full
+        final List<String> expected = readLines(file, 0, size);
+        assertEquals(20_000, expected.size());
+        assertEquals(expected, readViews(file, 0, size));
+
+        // chunked like the engines do it, all lines must be there, once
+        for (int chunks : new int[] {2, 3, 7, 64})
+        {
+            final long chunkSize = size / chunks;
+            final List<String> lines = new ArrayList<>();
+            for (int i = 0; i < chunks; i++)
+            {
+                final long from = i * chunkSize;
+                final long to = i == chunks - 1 ? size : from + chunkSize;
+
+                final List<String> chunk = readViews(file, from > 0 ? from - 1 : 0, to);
+                assertEquals(readLines(file, from > 0 ? from - 1 : 0, to), chunk);
+                assertEquals(chunk, readViews(file, from > 0 ? from - 1 : 0, to, true));
+                lines.addAll(chunk);
+            }
+            assertEquals(expected, lines);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebrc.parallel.BRC086_ResultWriter;
+
+/**
+ * Every format has to carry the same data as the TreeMap text output
+ */
+public class ResultWriterTest
+{
+    @TempDir
+    Path tempDir;
+
+    private static final String[] NAMES = {
+            "Hamburg", "Abéché", "São Paulo", "Quote\"d", "Back\\slash", "Tab\tStation",
+            "Zürich", "Ürümqi", "İzmir", "東京", "A", "Z"};
+
+    private Path data() throws IOException
+    {
+        final Random r = new Random(42);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++)
+        {
+            final int t = r.nextInt(1999) - 999;
+            sb.append(NAMES[r.nextInt(NAMES.length)]).append(';')
+                .append(t < 0 ? "-" : "").append(Math.abs(t) / 10).append('.').append(Math.abs(t) % 10).append('\n');
+        }
+        final Path p = tempDir.resolve("data.txt");
+        Files.writeString(p, sb.toString(), StandardCharsets.UTF_8);
+
+        return p;
+    }
+
+    private byte[] write(final Path data, final String format) throws IOException
+    {
+        final var engine = new BRC086_ResultWriter();
+        engine.setThreadCount(3);
+
+        final var out = new ByteArrayOutputStream();
+        try (var writer = ResultWriter.of(format, Channels.newChannel(out)))
+        {
+            engine.write(data.toString(), writer);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * name to count/min/mean/max in the order of the output
+     */
+    private Map<String, String> text(final Path data) throws IOException
+    {
+        final var engine = new BRC086_ResultWriter();
+        engine.setThreadCount(3);
+        final String s = engine.run(data.toString());
+
+        final var result = new LinkedHashMap<String, String>();
+        for (var e : s.substring(1, s.length() - 1).split(", "))
+        {
+            final int pos = e.lastIndexOf('=');
+            result.put(e.substring(0, pos), e.substring(pos + 1));
+        }
+        return result;
+    }
+
+    @Test
+    public void json() throws IOException
+    {
+        final Path data = data();
+        final String json = new String(write(data, "json"), StandardCharsets.UTF_8);
+
+        final var m = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\":\\{\"min\":([^,]+),\"mean\":([^,]+),\"max\":([^,]+),\"count\":(\\d+)\\}")
+                .matcher(json);
+        final var result = new LinkedHashMap<String, String>();
+        while (m.find())
+        {
+            final String name = m.group(1).replace("\\\"", "\"").replace("\\\\", "\\").replace("\\u0009", "\t");
+            result.put(name, m.group(5) + "/" + m.group(2) + "/" + m.group(3) + "/" + m.group(4));
+        }
+
+        assertEquals('{', json.charAt(0));
+        assertEquals('}', json.charAt(json.length() - 1));
+        assertEquals(text(data).toString(), result.toString());
+    }
+
+    @Test
+    public void csv() throws IOException
+    {
+        final Path data = data();
+        final var lines = new String(write(data, "csv"), StandardCharsets.UTF_8).split("\n");
+
+        assertEquals("station,min,mean,max,count", lines[0]);
+
+        final var result = new LinkedHashMap<String, String>();
+        for (int i = 1; i < lines.length; i++)
+        {
+            final String line = lines[i];
+
+            final String name;
+            final String rest;
+            if (line.startsWith("\""))
+            {
+                final int end = line.lastIndexOf("\",");
+                name = line.substring(1, end).replace("\"\"", "\"");
+                rest = line.substring(end + 2);
+            }
+            else
+            {
+                name = line.substring(0, line.indexOf(','));
+                rest = line.substring(line.indexOf(',') + 1);
+            }
+            final var v = rest.split(",");
+            result.put(name, v[3] + "/" + v[0] + "/" + v[1] + "/" + v[2]);
+        }
+
+        assertEquals(text(data).toString(), result.toString());
+    }
+
+    @Test
+    public void bin() throws IOException
+    {
+        final Path data = data();
+        final var in = new DataInputStream(new ByteArrayInputStream(write(data, "bin")));
+
+        assertEquals(BinaryResultWriter.MAGIC, in.readInt());
+        assertEquals(BinaryResultWriter.VERSION, in.readInt());
+
+        final var result = new LinkedHashMap<String, String>();
+        int length;
+        while ((length = in.readInt()) != BinaryResultWriter.END)
+        {
+            final String name = new String(in.readNBytes(length), StandardCharsets.UTF_8);
+            final int min = in.readInt();
+            final int max = in.readInt();
+            final long total = in.readLong();
+            final long count = in.readLong();
+            result.put(name, MathUtil.toStringFromInteger(total, count, min, max));
+        }
+
+        assertEquals(0, in.available());
+        assertEquals(text(data).toString(), result.toString());
+    }
+
+    @Test
+    public void csvQuoting() throws IOException
+    {
+        final var out = new ByteArrayOutputStream();
+        try (var writer = ResultWriter.of("csv", Channels.newChannel(out)))
+        {
+            final byte[] name = "Comma, \"Quote\"".getBytes(StandardCharsets.UTF_8);
+            writer.station(name, 0, name.length, -999, 999, 0, 2);
+        }
+
+        assertEquals("station,min,mean,max,count\n\"Comma, \"\"Quote\"\"\",-99.9,0.0,99.9,2\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void empty() throws IOException
+    {
+        final var out = new ByteArrayOutputStream();
+        try (var writer = ResultWriter.of("json", Channels.newChannel(out)))
+        {
+        }
+        assertEquals("{}", out.toString(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalArgumentException.class, () -> ResultWriter.of("xml", Channels.newChannel(out)));
+    }
+}
@@ -0,0 +1,57 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StationGroupsTest
+{
+    @TempDir
+    Path tempDir;
+
+    private StationGroups load(final String content) throws IOException
+    {
+        final Path p = tempDir.resolve("groups.txt");
+        Files.writeString(p, content, StandardCharsets.UTF_8);
+        return StationGroups.load(p);
+    }
+
+    @Test
+    public void load() throws IOException
+    {
+        final var groups = load("# comment\nHamburg;Germany\nBerlin;Germany\n\nAbéché;Chad\nParis;France\n");
+
+        assertEquals(3, groups.size());
+        assertEquals("Germany", groups.name(groups.groupOf("Hamburg")));
+        assertEquals(groups.groupOf("Hamburg"), groups.groupOf("Berlin"));
+        assertEquals("Chad", groups.name(groups.groupOf("Abéché".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(StationGroups.NONE, groups.groupOf("Madrid"));
+    }
+
+    @Test
+    public void broken() throws IOException
+    {
+        assertThrows(IOException.class, () -> load("Hamburg;Germany\nBerlin\n"));
+    }
+
+    @Test
+    public void rollup() throws IOException
+    {
+        final var groups = load("Hamburg;Germany\nBerlin;Germany\nParis;France\n");
+        final var rollup = groups.new Rollup();
+
+        rollup.add(groups.groupOf("Hamburg"), -50, 300, 1000, 100);
+        rollup.add(groups.groupOf("Berlin"), -100, 250, 2000, 100);
+        rollup.add(groups.groupOf("Madrid"), -100, 250, 2000, 100);
+
+        // France has no data
+        assertEquals("{Germany=200/-10.0/1.5/30.0}", rollup.toString());
+    }
+}
@@ -0,0 +1,194 @@
+package org.onebrc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StationSpillerTest
+{
+    @TempDir
+    Path tempDir;
+
+    private static int hash(final byte[] name)
+    {
+        int h = 0;
+        for (byte b : name)
+        {
+            h = h * 31 + b;
+        }
+        return h;
+    }
+
+    private static void update(final IncrementalStationTable table, final String name, final int temperature)
+    {
+        final byte[] b = name.getBytes(StandardCharsets.UTF_8);
+        table.update(b, 0, b.length, hash(b), temperature);
+    }
+
+    @Test
+    public void spillAndMerge() throws IOException
+    {
+        // what we expect, min/max/total/count
+        final TreeMap<String, long[]> expected = new TreeMap<>();
+
+        try (var spiller = new StationSpiller(this.tempDir, 3))
+        {
+            // three spills with overlapping stations
+            for (int spill = 0; spill < 3; spill++)
+            {
+                final IncrementalStationTable table = new IncrementalStationTable(16);
+                for (int i = spill * 10_000; i < spill * 10_000 + 20_000; i++)
+                {
+                    final String name = "Station" + i;
+                    final int t = (i % 200) - 100 + spill;
+                    update(table, name, t);
+
+                    final long[] e = expected.computeIfAbsent(name, k -> new long[] {Long.MAX_VALUE, Long.MIN_VALUE, 0, 0});
+                    e[0] = Math.min(e[0], t);
+                    e[1] = Math.max(e[1], t);
+                    e[2] += t;
+                    e[3]++;
+                }
+                spiller.spill(table);
+            }
+            assertEquals(3, spiller.spills());
+
+            final List<String> names = new ArrayList<>();
+            spiller.merge((name, offset, length, min, max, total, count) ->
+            {
+                final String s = new String(name, offset, length, StandardCharsets.UTF_8);
+                names.add(s);
+
+                final long[] e = expected.get(s);
+                assertEquals(e[0], min);
+                assertEquals(e[1], max);
+                assertEquals(e[2], total);
+                assertEquals(e[3], count);
+            });
+
+            // all of them, in order
+            assertEquals(new ArrayList<>(expected.keySet()), names);
+        }
+
+        // cleaned up
+        try (var files = Files.list(this.tempDir))
+        {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void splitOverBudget() throws IOException
+    {
+        final TreeMap<String, long[]> expected = new TreeMap<>();
+
+        // a single partition, so all must be done by splitting
+        try (var spiller = new StationSpiller(this.tempDir, 0))
+        {
+            for (int spill = 0; spill < 2; spill++)
+            {
+                final IncrementalStationTable table = new IncrementalStationTable(16);
+                for (int i = spill * 25_000; i < spill * 25_000 + 50_000; i++)
+                {
+                    final String name = "Station" + i;
+                    final int t = (i % 200) - 100;
+                    update(table, name, t);
+
+                    final long[] e = expected.computeIfAbsent(name, k -> new long[] {Long.MAX_VALUE, Long.MIN_VALUE, 0, 0});
+                    e[0] = Math.min(e[0], t);
+                    e[1] = Math.max(e[1], t);
+                    e[2] += t;
+                    e[3]++;
+                }
+                spiller.spill(table);
+            }
+
+            final List<String> names = new ArrayList<>();
+            spiller.merge((name, offset, length, min, max, total, count) ->
+            {
+                final String s = new String(name, offset, length, StandardCharsets.UTF_8);
+                names.add(s);
+
+                final long[] e = expected.get(s);
+                assertEquals(e[0], min);
+                assertEquals(e[1], max);
+                assertEquals(e[2], total);
+                assertEquals(e[3], count);
+            }, 2 * 1024 * 1024);
+
+            // the partition did not fit, so it was split at least once
+            assertTrue(spiller.runs() > 1);
+            assertEquals(new ArrayList<>(expected.keySet()), names);
+        }
+
+        try (var files = Files.list(this.tempDir))
+        {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void noSpill() throws IOException
+    {
+        try (var spiller = new StationSpiller(this.tempDir, 0))
+        {
+            assertEquals(0, spiller.spills());
+
+            final List<String> names = new ArrayList<>();
+            spiller.merge((name, offset, length, min, max, total, count) -> names.add(new String(name, offset, length)));
+            assertTrue(names.isEmpty());
+        }
+    }
+
+    @Test
+    public void readConcatenatedResults() throws IOException
+    {
+        final Path file = this.tempDir.resolve("r.bin");
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            try (var w = new BinaryResultWriter(channel))
+            {
+                w.station("a".getBytes(), 0, 1, -1, 2, 3, 4);
+            }
+            // empty one in between
+            try (var w = new BinaryResultWriter(channel))
+            {
+            }
+            try (var w = new BinaryResultWriter(channel))
+            {
+                // longer than the read buffer
+                final byte[] name = "x".repeat(100_000).getBytes();
+                w.station(name, 0, name.length, 5, 6, 7, 8);
+            }
+        }
+
+        try (var r = new BinaryResultReader(FileChannel.open(file)))
+        {
+            assertTrue(r.next());
+            assertEquals("a", new String(r.name, 0, r.length));
+            assertEquals(-1, r.min);
+            assertEquals(2, r.max);
+            assertEquals(3, r.total);
+            assertEquals(4, r.count);
+
+            assertTrue(r.next());
+            assertEquals(100_000, r.length);
+            assertEquals(8, r.count);
+
+            assertFalse(r.next());
+        }
+    }
+}